@@ -0,0 +1,267 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rows of a chunk stored column by column, read and compared as given by the
+ * column plan of the table pair. The integer columns are kept in long arrays with
+ * a null flag, the other columns as their normalized strings.
+ * The arrays are reused when the buffer is cleared and filled again, so reading
+ * a chunk allocates no objects per row, except the strings of the non integer columns.
+ * A row can be unknown, then only its primary key is known and all its columns
+ * are treated as changed.
+ */
+public class ChunkBuffer
+{
+    private ColumnPlan plan_;
+    private int[] types_;
+    // True for the columns stored in longs_, a column falls back to strings if the driver cannot read it as a long.
+    private boolean[] ints_;
+    private int size_;
+    private int[] pks_ = new int[0];
+    private boolean[] unknown_ = new boolean[0];
+    private long[][] longs_;
+    private boolean[][] nulls_;
+    private String[][] strings_;
+
+    public ChunkBuffer(ColumnPlan plan)
+    {
+        plan_ = plan;
+        int[] types = plan.types();
+        types_ = types;
+        ints_ = new boolean[types.length];
+        longs_ = new long[types.length][];
+        nulls_ = new boolean[types.length][];
+        strings_ = new String[types.length][];
+        clear();
+    }
+
+    /**
+     * Forget the rows, the arrays are kept for the next chunk.
+     * Integer columns that fell back to strings are reset.
+     */
+    public void clear()
+    {
+        for (int c = 0; c < types_.length; c++) ints_[c] = plan_.isLong(c);
+        size_ = 0;
+        // Let the strings of the previous chunk be collected.
+        for (String[] s : strings_) if (s != null) Arrays.fill(s, null);
+    }
+
+    public int size()
+    {
+        return size_;
+    }
+
+    public int pk(int i)
+    {
+        return pks_[i];
+    }
+
+    public boolean unknown(int i)
+    {
+        return unknown_[i];
+    }
+
+    void ensure(int n)
+    {
+        if (n <= pks_.length) return;
+
+        int cap = Math.max(n, 2*pks_.length);
+        pks_ = Arrays.copyOf(pks_, cap);
+        unknown_ = Arrays.copyOf(unknown_, cap);
+        for (int c = 0; c < types_.length; c++)
+        {
+            longs_[c] = longs_[c] == null ? new long[cap] : Arrays.copyOf(longs_[c], cap);
+            nulls_[c] = nulls_[c] == null ? new boolean[cap] : Arrays.copyOf(nulls_[c], cap);
+            strings_[c] = strings_[c] == null ? new String[cap] : Arrays.copyOf(strings_[c], cap);
+        }
+    }
+
+    /**
+     * Add the current row of the result set. The primary key is the
+     * first column and the columns of the source follow.
+     */
+    void add(ResultSet rs) throws SQLException
+    {
+        ensure(size_+1);
+        int i = size_;
+        pks_[i] = rs.getInt(1);
+        unknown_[i] = false;
+        for (int c = 0; c < types_.length; c++)
+        {
+            if (ints_[c])
+            {
+                try
+                {
+                    longs_[c][i] = rs.getLong(c+2);
+                    nulls_[c][i] = rs.wasNull();
+                    continue;
+                }
+                catch (SQLException e)
+                {
+                    // E.g. an unsigned bigint that does not fit, keep this column as strings.
+                    toStrings(c);
+                }
+            }
+            strings_[c][i] = plan_.read(rs, c+2, c);
+        }
+        size_++;
+    }
+
+    /**
+     * Add a row where only the primary key is known.
+     */
+    void addUnknown(int pk)
+    {
+        ensure(size_+1);
+        pks_[size_] = pk;
+        unknown_[size_] = true;
+        size_++;
+    }
+
+    /**
+     * Add a copy of row j of the other buffer.
+     */
+    void add(ChunkBuffer other, int j)
+    {
+        if (other.unknown(j))
+        {
+            addUnknown(other.pk(j));
+            return;
+        }
+        ensure(size_+1);
+        int i = size_;
+        pks_[i] = other.pk(j);
+        unknown_[i] = false;
+        for (int c = 0; c < types_.length; c++)
+        {
+            if (ints_[c] && !other.ints_[c]) toStrings(c);
+            if (ints_[c])
+            {
+                longs_[c][i] = other.longs_[c][j];
+                nulls_[c][i] = other.nulls_[c][j];
+            }
+            else
+            {
+                strings_[c][i] = other.value(j, c);
+            }
+        }
+        size_++;
+    }
+
+    void toStrings(int c)
+    {
+        for (int i = 0; i < size_; i++)
+        {
+            if (!unknown_[i]) strings_[c][i] = nulls_[c][i] ? null : Long.toString(longs_[c][i]);
+        }
+        ints_[c] = false;
+    }
+
+    /**
+     * The normalized value of column c of row i, as the string the database would render.
+     */
+    public String value(int i, int c)
+    {
+        if (!ints_[c]) return strings_[c][i];
+        return nulls_[c][i] ? null : Long.toString(longs_[c][i]);
+    }
+
+    public String[] values(int i)
+    {
+        String[] values = new String[types_.length];
+        for (int c = 0; c < types_.length; c++) values[c] = value(i, c);
+        return values;
+    }
+
+    /**
+     * The row i with its values as strings, an unknown row has no columns.
+     */
+    public Row row(int i)
+    {
+        if (unknown_[i]) return new Row(pks_[i], null);
+        return new Row(pks_[i], Arrays.asList(values(i)));
+    }
+
+    boolean sameColumn(int i, ChunkBuffer other, int j, int c)
+    {
+        if (ints_[c] && other.ints_[c])
+        {
+            if (nulls_[c][i] || other.nulls_[c][j]) return nulls_[c][i] == other.nulls_[c][j];
+            return longs_[c][i] == other.longs_[c][j];
+        }
+        return plan_.same(c, value(i, c), other.value(j, c));
+    }
+
+    /**
+     * True if row i has the same values as row j of the other buffer.
+     * This buffer holds the source rows, the other the sink rows.
+     */
+    public boolean same(int i, ChunkBuffer other, int j)
+    {
+        if (unknown_[i] || other.unknown_[j]) return false;
+        for (int c = 0; c < types_.length; c++)
+        {
+            if (!sameColumn(i, other, j, c)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The indexes of the columns of row i that differ from row j of the
+     * other buffer. All columns if the other row is unknown.
+     */
+    public List<Integer> changed(int i, ChunkBuffer other, int j)
+    {
+        List<Integer> changed = new ArrayList<>();
+        for (int c = 0; c < types_.length; c++)
+        {
+            if (other.unknown_[j] || !sameColumn(i, other, j, c)) changed.add(c);
+        }
+        return changed;
+    }
+
+    /**
+     * The approximate size of the values, integers count as 8 bytes.
+     */
+    public long bytes()
+    {
+        long n = 0;
+        for (int c = 0; c < types_.length; c++)
+        {
+            if (ints_[c])
+            {
+                n += 8L*size_;
+                continue;
+            }
+            for (int i = 0; i < size_; i++)
+            {
+                if (strings_[c][i] != null) n += strings_[c][i].length();
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Read the rows of chunks from the source and the sink at the same time.
+ * The source and the sink each have their own reader thread, so the two
+ * round trips for a chunk overlap. While the caller diffs the current chunk,
+ * up to depth following chunks are read in the background.
+ * If reading a chunk fails or times out, the chunk is split in two
+ * and the halves are read instead.
+ * The rows are read into chunk buffers that are recycled when the caller is
+ * done with a chunk, so the arrays are allocated once and not per chunk.
+ */
+public class ChunkReader
+{
+    // The buffers are kept next to the futures, so that they are recycled even if a read fails.
+    record Pending(PK chunk,
+                   ChunkBuffer from_buffer, ChunkBuffer to_buffer,
+                   Future<ChunkBuffer> from_rows, Future<ChunkBuffer> to_rows,
+                   Future<ChunkSum> from_sum, Future<ChunkSum> to_sum,
+                   Future<ArrayList<RowHash>> from_hashes, Future<ArrayList<RowHash>> to_hashes) {}
+
+    private Table ft_;
+    private Table tt_;
+    private Iterator<PK> chunks_;
+    private int depth_;
+    private ExecutorService source_reader_;
+    private ExecutorService sink_reader_;
+    private LinkedList<Pending> pending_ = new LinkedList<>();
+    private ChunkSizer sizer_;
+    private boolean checksums_;
+    private boolean row_hashes_;
+    // True if a differing row hash always means that the row values differ.
+    private boolean same_family_;
+    // Buffers handed back by the caller, ready to be filled again.
+    private ConcurrentLinkedQueue<ChunkBuffer> free_ = new ConcurrentLinkedQueue<>();
+
+    public ChunkReader(Table ft, Table tt, Iterator<PK> chunks, int depth, ChunkSizer sizer)
+    {
+        ft_ = ft;
+        tt_ = tt;
+        chunks_ = chunks;
+        depth_ = depth;
+        sizer_ = sizer;
+        same_family_ = DBType.sameFamily(ft.database().db().dbType(), tt.database().db().dbType());
+        source_reader_ = Executors.newSingleThreadExecutor(ChunkReader::daemon);
+        sink_reader_ = Executors.newSingleThreadExecutor(ChunkReader::daemon);
+    }
+
+    static Thread daemon(Runnable r)
+    {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Compare server side checksums first and only read
+     * the rows of the chunks where the checksums differ.
+     */
+    public void useChecksums(boolean y)
+    {
+        checksums_ = y;
+    }
+
+    /**
+     * Compare the row hashes of a chunk and only read the
+     * column values of the rows where the hashes differ.
+     */
+    public void useRowHashes(boolean y)
+    {
+        row_hashes_ = y;
+    }
+
+    /**
+     * Hand back the buffers of a chunk that has been diffed.
+     */
+    public void recycle(ChunkRows rows)
+    {
+        if (rows.from_rows() != null) free_.add(rows.from_rows());
+        if (rows.to_rows() != null) free_.add(rows.to_rows());
+    }
+
+    ChunkBuffer buffer()
+    {
+        ChunkBuffer b = free_.poll();
+        if (b == null) return new ChunkBuffer(ft_.plan(tt_));
+        b.clear();
+        return b;
+    }
+
+    public boolean hasNext()
+    {
+        return !pending_.isEmpty() || chunks_.hasNext();
+    }
+
+    /**
+     * Wait for the rows of the next chunk. The reads for the
+     * following chunks are started before returning.
+     */
+    public ChunkRows next()
+    {
+        fill(1);
+        Pending p = pending_.removeFirst();
+        // Start reading ahead while the caller works on this chunk.
+        fill(depth_);
+
+        ChunkRows rows = rows(p);
+        if (rows != null) return rows;
+
+        // The read failed or timed out, read the two halves instead, highest keys first.
+        PK chunk = p.chunk();
+        if (chunk.keys().length < 2)
+        {
+            // Never continue with a partial chunk, that could delete rows in the sink.
+            throw new RuntimeException("(sync-data) failed to read chunk "+chunk.from()+"-"+chunk.to()+" of "+ft_.name());
+        }
+        Log.verbose("(sync-data) splitting chunk "+chunk.from()+"-"+chunk.to()+" of "+ft_.name()+"\n");
+        if (sizer_ != null) sizer_.failed();
+
+        int[] keys = chunk.keys();
+        int mid = keys.length/2;
+        int[] low = Arrays.copyOfRange(keys, 0, mid);
+        int[] high = Arrays.copyOfRange(keys, mid, keys.length);
+        pending_.addFirst(read(new PK(low[0], low[low.length-1], low)));
+        pending_.addFirst(read(new PK(high[0], high[high.length-1], high)));
+        return next();
+    }
+
+    /**
+     * Wait for the rows of the chunk, returns null if a read failed,
+     * then the caller splits the chunk.
+     */
+    ChunkRows rows(Pending p)
+    {
+        if (p.from_sum() != null)
+        {
+            ChunkSum fs = get(p.from_sum());
+            ChunkSum ts = get(p.to_sum());
+            if (fs != null && fs.equals(ts))
+            {
+                return new ChunkRows(p.chunk(), null, null, true, 0);
+            }
+            // The checksums differ, now we have to fetch the rows.
+            p = read(p.chunk());
+        }
+        if (p.from_hashes() != null)
+        {
+            ArrayList<RowHash> fh = get(p.from_hashes());
+            ArrayList<RowHash> th = get(p.to_hashes());
+            if (fh == null || th == null) return null;
+            return diffHashes(p.chunk(), fh, th);
+        }
+        ChunkBuffer from_rows = get(p.from_rows());
+        ChunkBuffer to_rows = get(p.to_rows());
+        if (from_rows == null || to_rows == null)
+        {
+            // Both reads are done, the buffers can be filled again.
+            free_.add(p.from_buffer());
+            free_.add(p.to_buffer());
+            return null;
+        }
+        return new ChunkRows(p.chunk(), from_rows, to_rows, false, 0);
+    }
+
+    /**
+     * Compare the sorted row hashes from the source and the sink. Read the full
+     * rows from the source for the keys that are new or have different hashes.
+     * A sink row that differs is returned without columns, which means that
+     * all columns are updated. The rows that only exist in the sink are also
+     * returned without columns since only the key is needed to delete them.
+     * Returns null if a read failed.
+     */
+    ChunkRows diffHashes(PK chunk, ArrayList<RowHash> from, ArrayList<RowHash> to)
+    {
+        ArrayList<Integer> fetch = new ArrayList<>();
+        ArrayList<Integer> changed = new ArrayList<>();
+        // The keys of the sink rows without columns, in key order.
+        ArrayList<Integer> unknown = new ArrayList<>();
+        int num_same = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < from.size() || j < to.size())
+        {
+            RowHash f = i < from.size() ? from.get(i) : null;
+            RowHash t = j < to.size() ? to.get(j) : null;
+
+            if (f != null && t != null && f.pk() == t.pk())
+            {
+                if (f.hash() == t.hash())
+                {
+                    num_same++;
+                }
+                else
+                {
+                    fetch.add(f.pk());
+                    changed.add(f.pk());
+                    if (same_family_) unknown.add(f.pk());
+                }
+                i++;
+                j++;
+            }
+            else if (t == null || (f != null && f.pk() < t.pk()))
+            {
+                fetch.add(f.pk());
+                i++;
+            }
+            else
+            {
+                unknown.add(t.pk());
+                j++;
+            }
+        }
+
+        int[] fetch_keys = fetch.stream().mapToInt(Integer::intValue).toArray();
+        int[] changed_keys = changed.stream().mapToInt(Integer::intValue).toArray();
+
+        ChunkBuffer from_buffer = buffer();
+        Future<ChunkBuffer> from_rows = source_reader_.submit(() -> ft_.rowsWithKeys(fetch_keys, ft_, from_buffer));
+        ChunkBuffer to_rows = buffer();
+        if (same_family_)
+        {
+            for (int k : unknown) to_rows.addUnknown(k);
+        }
+        else
+        {
+            // The databases might render the same value differently, e.g. floats or time zones,
+            // then the hashes differ for equal rows. Read the sink rows as well so that
+            // only the columns that really differ are updated.
+            ChunkBuffer sink_buffer = buffer();
+            ChunkBuffer sink_rows = get(sink_reader_.submit(() -> tt_.rowsWithKeys(changed_keys, ft_, sink_buffer)));
+            if (sink_rows == null)
+            {
+                // Wait for the source read before its buffer is filled again.
+                get(from_rows);
+                free_.add(from_buffer);
+                free_.add(sink_buffer);
+                free_.add(to_rows);
+                return null;
+            }
+            // Merge the deleted keys and the sink rows, both are sorted.
+            int u = 0;
+            int s = 0;
+            while (u < unknown.size() || s < sink_rows.size())
+            {
+                if (s >= sink_rows.size() || (u < unknown.size() && unknown.get(u) < sink_rows.pk(s)))
+                {
+                    to_rows.addUnknown(unknown.get(u++));
+                }
+                else
+                {
+                    to_rows.add(sink_rows, s++);
+                }
+            }
+            free_.add(sink_buffer);
+        }
+
+        ChunkBuffer source_rows = get(from_rows);
+        if (source_rows == null)
+        {
+            free_.add(from_buffer);
+            free_.add(to_rows);
+            return null;
+        }
+        return new ChunkRows(chunk, source_rows, to_rows, false, num_same);
+    }
+
+    public void close()
+    {
+        source_reader_.shutdownNow();
+        sink_reader_.shutdownNow();
+    }
+
+    void fill(int n)
+    {
+        while (pending_.size() < n && chunks_.hasNext())
+        {
+            PK chunk = chunks_.next();
+            if (checksums_)
+            {
+                Future<ChunkSum> f = source_reader_.submit(() -> ft_.chunkChecksum(chunk, ft_));
+                Future<ChunkSum> t = sink_reader_.submit(() -> tt_.chunkChecksum(chunk, ft_));
+                pending_.add(new Pending(chunk, null, null, null, null, f, t, null, null));
+            }
+            else
+            {
+                pending_.add(read(chunk));
+            }
+        }
+    }
+
+    Pending read(PK chunk)
+    {
+        if (row_hashes_)
+        {
+            Future<ArrayList<RowHash>> f = source_reader_.submit(() -> ft_.rowHashes(chunk, ft_));
+            Future<ArrayList<RowHash>> t = sink_reader_.submit(() -> tt_.rowHashes(chunk, ft_));
+            return new Pending(chunk, null, null, null, null, null, null, f, t);
+        }
+        ChunkBuffer from_buffer = buffer();
+        ChunkBuffer to_buffer = buffer();
+        Future<ChunkBuffer> f = source_reader_.submit(() -> ft_.rows(chunk, ft_, from_buffer));
+        // Note that we use the source as reference for column names.
+        Future<ChunkBuffer> t = sink_reader_.submit(() -> tt_.rows(chunk, ft_, to_buffer));
+        return new Pending(chunk, from_buffer, to_buffer, f, t, null, null, null, null);
+    }
+
+    /**
+     * Wait for a read, returns null if the read failed. The reads return null
+     * themselves when a query fails or times out, an exception thrown by a
+     * read is treated the same way so that the caller splits the chunk.
+     */
+    static <T> T get(Future<T> f)
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (ExecutionException e)
+        {
+            Log.verbose("(sync-data) chunk read failed "+e.getCause()+"\n");
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            // Never continue with a partial chunk, that could delete rows in the sink.
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("(sync-data) interrupted while reading chunk", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+/**
+ * The source and sink rows of a chunk. If the source and sink checksums
+ * were equal, then the rows are not read and unchanged is true.
+ * When row hashes are compared, only the rows that differ are read
+ * and num_same is the number of rows with equal hashes.
+ * The buffers are handed back to the reader with recycle when the chunk is diffed.
+ */
+public record ChunkRows (PK chunk, ChunkBuffer from_rows, ChunkBuffer to_rows, boolean unchanged, int num_same)
+{
+}
@@ -0,0 +1,110 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+/**
+ * Adapt the number of rows per chunk for a table while it is synced.
+ * A chunk should take about target milliseconds to read, diff and write.
+ * Narrow tables get large chunks since the round trips dominate, tables with
+ * wide rows are limited so that a chunk stays below max_bytes.
+ * The size is shared by all ranges of a table, so it is synchronized.
+ */
+public class ChunkSizer
+{
+    private int size_;
+    private int min_;
+    private int max_;
+    private long target_ms_;
+    private long max_bytes_;
+    private double bytes_per_row_;
+
+    public ChunkSizer(int size, int min, int max, long target_ms, long max_bytes)
+    {
+        min_ = min;
+        max_ = Math.max(min, max);
+        size_ = clamp(size);
+        target_ms_ = target_ms;
+        max_bytes_ = max_bytes;
+    }
+
+    /**
+     * A sizer with the bounds and the latency target from the settings.
+     */
+    public static ChunkSizer fromSettings()
+    {
+        return new ChunkSizer(Settings.chunkSize(), Settings.chunkMin(), Settings.chunkMax(),
+                              Settings.chunkTargetMs(), Settings.chunkMaxBytes());
+    }
+
+    public synchronized int size()
+    {
+        return size_;
+    }
+
+    /**
+     * Report that a chunk with rows rows and bytes bytes took millis milliseconds.
+     * Bytes is 0 if the rows were not read.
+     */
+    public synchronized void observe(int rows, long millis, long bytes)
+    {
+        if (rows <= 0) return;
+
+        // Chunks skipped by checksums have no bytes.
+        if (bytes > 0)
+        {
+            double bpr = (double)bytes/rows;
+            if (bytes_per_row_ == 0) bytes_per_row_ = bpr;
+            else bytes_per_row_ = 0.8*bytes_per_row_+0.2*bpr;
+        }
+
+        // A short last chunk says nothing about the time for a full chunk.
+        if (rows < size_/2 && millis < target_ms_) return;
+
+        int next = size_;
+        if (millis > target_ms_)
+        {
+            // Too slow, shrink towards the target but never more than half at once.
+            next = (int)Math.max(size_/2, (long)size_*target_ms_/Math.max(millis, 1));
+        }
+        else if (millis < target_ms_/2)
+        {
+            next = size_*2;
+        }
+
+        if (bytes_per_row_ > 0)
+        {
+            next = (int)Math.min(next, (long)(max_bytes_/bytes_per_row_));
+        }
+        size_ = clamp(next);
+    }
+
+    /**
+     * A chunk failed or timed out, halve the size.
+     */
+    public synchronized void failed()
+    {
+        size_ = clamp(size_/2);
+    }
+
+    int clamp(int n)
+    {
+        if (n < min_) return min_;
+        if (n > max_) return max_;
+        return n;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * How the columns of a source table are read and compared against a sink table.
+ * The plan is built once per table pair from the column metadata of both sides,
+ * so reading a cell does not test the column type again. The values are only
+ * rendered as sql literals for the changes that are printed.
+ * Values that differ are still the same if the equivalence of the column,
+ * for the source and sink database types, says so.
+ */
+public class ColumnPlan
+{
+    enum Codec
+    {
+        // An integer on both sides, read with getLong and compared as a long.
+        LONG,
+        // Read as a string and compared as is, e.g. text and booleans.
+        STRING,
+        // A timestamp rendered with a T between the date and the time.
+        DATETIME,
+        // A real number without a trailing .0
+        REAL
+    }
+
+    private int[] types_;
+    private Codec[] codecs_;
+    // Null for the columns where the values must be equal.
+    private Equivalence[] equivalences_;
+
+    ColumnPlan(Table source, Table sink)
+    {
+        DBType from = source.database().db().dbType();
+        DBType to = sink.database().db().dbType();
+        types_ = source.columnTypes();
+        codecs_ = new Codec[types_.length];
+        equivalences_ = new Equivalence[types_.length];
+        for (int c = 0; c < types_.length; c++)
+        {
+            Column sc = sink.column(source.column(c).name());
+            int sink_type = sc != null ? sc.type() : types_[c];
+            codecs_[c] = codec(types_[c], sink_type);
+            if (!Settings.exactCompare())
+            {
+                equivalences_[c] = Equivalences.lookup(from, to, codecs_[c], source.column(c), sc);
+            }
+        }
+    }
+
+    /**
+     * A plan with the given codecs and equivalences, for columns of the given types.
+     */
+    ColumnPlan(int[] types, Codec[] codecs, Equivalence[] equivalences)
+    {
+        types_ = types;
+        codecs_ = codecs;
+        equivalences_ = equivalences;
+    }
+
+    /**
+     * Pick the codec with the same precedence as Table.value, text before
+     * date times since a DATE is compared as text.
+     */
+    static Codec codec(int type, int sink_type)
+    {
+        if (Table.isText(type)) return Codec.STRING;
+        if (Table.isDateTime(type)) return Codec.DATETIME;
+        if (Table.isReal(type)) return Codec.REAL;
+        if (Table.isInt(type))
+        {
+            // Booleans are rendered as t and f by postgres, and a sink column
+            // that is not an integer might hold values that getLong cannot read.
+            if (type == Types.BOOLEAN || sink_type == Types.BOOLEAN || !Table.isInt(sink_type)) return Codec.STRING;
+            return Codec.LONG;
+        }
+
+        Log.error("Unsupported SQL type "+type+"\n");
+        System.exit(1);
+
+        return null;
+    }
+
+    public int size()
+    {
+        return types_.length;
+    }
+
+    public int[] types()
+    {
+        return types_;
+    }
+
+    public boolean isLong(int c)
+    {
+        return codecs_[c] == Codec.LONG;
+    }
+
+    /**
+     * Read column c, stored at index in the result set, as a normalized string.
+     */
+    String read(ResultSet rs, int index, int c) throws SQLException
+    {
+        String s = rs.getString(index);
+        if (s == null) return null;
+        switch (codecs_[c])
+        {
+        case DATETIME: return Table.fixDateTime(s);
+        case REAL: return Table.trimReal(s);
+        default: return s;
+        }
+    }
+
+    /**
+     * Compare the normalized source and sink values of column c.
+     */
+    boolean same(int c, String source, String sink)
+    {
+        if (source == null || sink == null) return source == sink;
+        if (source.equals(sink)) return true;
+        return equivalences_[c] != null && equivalences_[c].same(source, sink);
+    }
+}
@@ -19,24 +19,43 @@ package org.ammunde.sqlcomp;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.UUID;
 import java.time.Instant;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Optional;
 import org.libxmq.Query;
 import org.w3c.dom.Element;
-
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * A connection leased from the connection pool of a configured database.
+ * Each workload, e.g. the stream apply, a sync worker or a sink writer,
+ * has its own DB with its own leased connection, so they never wait
+ * for each other. The methods of a single DB are synchronized.
+ */
 public class DB
 {
+    // The connection pools, one per configured database, shared by all its DBs.
+    private static Map<String,HikariDataSource> pools_ = new HashMap<>();
+
     private boolean valid_;
+    private HikariDataSource pool_;
+    // The maximum number of connections in the pool, 0 until the pool is created.
+    private int pool_size_;
     private Connection connection_;
+    // The number of rows fetched at a time by the streamed large scans.
+    private int fetch_size_ = 1000;
     private String name_;
     private String db_name_;
     private String db_user_;
@@ -47,7 +66,27 @@ public class DB
     private String schema_prefix_; // The schema_+"." or "" if no schema_
     private DBType type_;
     private Set<String> ignore_tables_;
+    private Set<String> append_only_tables_;
     private long last_connection_check_;
+    // Execute a jdbc batch when the bound values reach this size, 0 until looked up.
+    private long max_batch_bytes_;
+    // The prepared statements kept open per sql template, the least recently used is closed.
+    private Map<String,PreparedStatement> statements_ = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> e)
+        {
+            if (size() <= Settings.statementCache()) return false;
+            closeQuietly(e.getValue());
+            return true;
+        }
+    };
+    // The temporary staging tables created on this connection.
+    private Set<String> staging_tables_ = new HashSet<>();
+    // True between begin and commit or rollback, then the connection must not be replaced.
+    private boolean in_transaction_;
+    private long statement_hits_;
+    private long statement_misses_;
 
     public DB(Query config)
     {
@@ -64,6 +103,10 @@ public class DB
             db_user_ = config.getString("db_user", "\\w+");
             db_pwd_ = config.getString("db_pwd", ".*");
             db_schema_ = config.optional().getString("db_schema", "\\w*");
+            String pool_size = config.optional().getString("pool_size", "\\d+");
+            if (pool_size != null) pool_size_ = Integer.parseInt(pool_size);
+            String fetch_size = config.optional().getString("fetch_size", "\\d+");
+            if (fetch_size != null) fetch_size_ = Math.max(1, Integer.parseInt(fetch_size));
 
             String ignores = config.optional().getString("ignore_tables", ".*");
 
@@ -77,6 +120,17 @@ public class DB
                 }
             }
 
+            String appends = config.optional().getString("append_only_tables", ".*");
+
+            append_only_tables_ = new HashSet<>();
+            if (appends != null && !appends.trim().equals(""))
+            {
+                for (String s : appends.split(","))
+                {
+                    append_only_tables_.add(s.trim().toLowerCase());
+                }
+            }
+
             if (db_schema_ != null && db_schema_.length() > 0) schema_prefix_ = db_schema_+".";
             else schema_prefix_ = "";
 
@@ -96,12 +150,93 @@ public class DB
         }
     }
 
-    public void close() throws SQLException
+    /**
+     * Open a new connection using the same settings as another DB.
+     * Used by workers that need their own connection.
+     * @param other The DB to copy the settings from.
+     */
+    public DB(DB other)
+    {
+        name_ = other.name_;
+        db_name_ = other.db_name_;
+        db_url_ = other.db_url_;
+        db_host_ = other.db_host_;
+        db_user_ = other.db_user_;
+        db_pwd_ = other.db_pwd_;
+        db_schema_ = other.db_schema_;
+        schema_prefix_ = other.schema_prefix_;
+        type_ = other.type_;
+        pool_ = other.pool_;
+        pool_size_ = other.pool_size_;
+        fetch_size_ = other.fetch_size_;
+        ignore_tables_ = other.ignore_tables_;
+        append_only_tables_ = other.append_only_tables_;
+        valid_ = other.valid_;
+        connect();
+    }
+
+    /**
+     * Give back the leased connection to the pool. The temporary staging tables live
+     * as long as the connection, they are dropped so that the next lease can create them.
+     */
+    public synchronized void close() throws SQLException
     {
+        Log.verbose("(db) "+name_+" statement cache "+statement_hits_+" hits "+statement_misses_+" misses\n");
+        closeStatements();
+        dropStaging();
+        in_transaction_ = false;
         connection_.close();
         connection_ = null;
     }
 
+    /**
+     * The connections leased at the same time: the main connection, then every worker
+     * leases one and each of its key ranges one for the reads and one for the sink writer.
+     * The health check briefly leases one more.
+     */
+    static int neededConnections(int workers, int ranges)
+    {
+        return 2+workers*(1+2*ranges);
+    }
+
+    /**
+     * The pool of the database, created by the first DB of the database. The default size
+     * gives every worker, key range and sink writer a connection. A configured pool_size
+     * that is too small is an error, otherwise a lease would wait for a connection that
+     * is never given back.
+     */
+    HikariDataSource pool()
+    {
+        synchronized (pools_)
+        {
+            String key = name_+" "+db_url_+" "+db_user_;
+            HikariDataSource pool = pools_.get(key);
+            if (pool == null)
+            {
+                int needed = neededConnections(Settings.workers(), Settings.ranges());
+                if (pool_size_ == 0) pool_size_ = needed;
+                if (pool_size_ < needed)
+                {
+                    Log.error("(db) pool_size "+pool_size_+" of "+name_+" is too small for "+Settings.workers()+
+                              " workers with "+Settings.ranges()+" key ranges, they need "+needed+" connections.\n");
+                    System.exit(1);
+                }
+
+                HikariConfig config = new HikariConfig();
+                config.setPoolName("sqlcomp-"+name_);
+                config.setJdbcUrl(db_url_);
+                config.setUsername(db_user_);
+                config.setPassword(db_pwd_);
+                config.setMaximumPoolSize(pool_size_);
+                config.setMinimumIdle(1);
+                pool = new HikariDataSource(config);
+                pools_.put(key, pool);
+                Log.verbose("(db) "+name_+" pool of "+pool_size_+" connections\n");
+            }
+            return pool;
+        }
+    }
+
     public Connection connection()
     {
         return connection_;
@@ -168,9 +303,13 @@ public class DB
         {
             if (connection_ != null)
             {
+                // The cached statements and the temporary tables belong to the old connection.
+                closeStatements();
+                staging_tables_.clear();
                 try
                 {
-                    connection_.close();
+                    // The connection is broken, remove it from the pool instead of giving it back.
+                    pool_.evictConnection(connection_);
                 }
                 catch (Exception e)
                 {
@@ -184,7 +323,8 @@ public class DB
 
             try
             {
-                connection_ = DriverManager.getConnection(db_url_, db_user_, db_pwd_);
+                if (pool_ == null) pool_ = pool();
+                connection_ = pool_.getConnection();
                 last_connection_check_ = System.currentTimeMillis();
             }
             catch (Exception e)
@@ -230,44 +370,7 @@ public class DB
         try
         {
             PreparedStatement stmnt = connection_.prepareStatement(query);
-            {
-                int i = 1;
-                for (Object o : args)
-                {
-                    if (o == null)
-                    {
-                        stmnt.setNull(i, java.sql.Types.NULL);
-                    }
-                    else if (o.getClass() == Integer.class)
-                    {
-                        stmnt.setInt(i, ((Integer)o));
-                    }
-                    else if (o.getClass() == Short.class)
-                    {
-                        stmnt.setInt(i, ((Short)o));
-                    }
-                    else if (o.getClass() == String.class)
-                    {
-                        stmnt.setString(i, (String)o);
-                    }
-                    else if (o.getClass() == Boolean.class)
-                    {
-                        stmnt.setBoolean(i, ((Boolean)o));
-                    }
-                    else if (o.getClass() == UUID.class)
-                    {
-                        stmnt.setObject(i, (UUID)o);
-                    }
-                    else if (o.getClass() == Instant.class)
-                    {
-                        stmnt.setTimestamp(i, java.sql.Timestamp.from((Instant)o));
-                    }
-                    else {
-                        Log.error("Our class DB cannot handle object class "+o.getClass().toString());
-                    }
-                    i++;
-                }
-            }
+            bindArgs(stmnt, query, args);
             return stmnt;
         }
         catch (Exception e)
@@ -277,8 +380,132 @@ public class DB
         return null;
     }
 
+    /**
+     * Return the cached prepared statement for the sql template, or prepare and cache it.
+     * The statement must be given back with release.
+     */
+    synchronized PreparedStatement cached(String query, Object[] args) throws SQLException
+    {
+        PreparedStatement stmnt = statements_.get(query);
+        if (stmnt != null)
+        {
+            statement_hits_++;
+            stmnt.clearParameters();
+        }
+        else
+        {
+            statement_misses_++;
+            stmnt = connection_.prepareStatement(query);
+            if (Settings.statementCache() > 0) statements_.put(query, stmnt);
+        }
+        bindArgs(stmnt, query, args);
+        return stmnt;
+    }
+
+    /**
+     * Give back a statement from cached. If the statement failed, or the cache
+     * is disabled, then the statement is closed.
+     */
+    synchronized void release(String query, PreparedStatement stmnt, boolean failed)
+    {
+        if (stmnt == null) return;
+        if (failed && statements_.get(query) == stmnt) statements_.remove(query);
+        if (statements_.get(query) != stmnt) closeQuietly(stmnt);
+    }
+
+    /**
+     * Remove the query timeout of the statement, returns false if it could not
+     * be removed, then the statement must not be reused.
+     */
+    static boolean clearTimeout(PreparedStatement stmnt)
+    {
+        try
+        {
+            stmnt.setQueryTimeout(0);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            return false;
+        }
+    }
+
+    synchronized void closeStatements()
+    {
+        for (PreparedStatement stmnt : statements_.values()) closeQuietly(stmnt);
+        statements_.clear();
+    }
+
+    static void closeQuietly(PreparedStatement stmnt)
+    {
+        try
+        {
+            stmnt.close();
+        }
+        catch (Exception e)
+        {
+        }
+    }
+
+    public synchronized long statementHits()
+    {
+        return statement_hits_;
+    }
+
+    public synchronized long statementMisses()
+    {
+        return statement_misses_;
+    }
+
+    void bindArgs(PreparedStatement stmnt, String query, Object[] args) throws SQLException
+    {
+        int i = 1;
+        for (Object o : args)
+        {
+            if (o == null)
+            {
+                stmnt.setNull(i, java.sql.Types.NULL);
+            }
+            else if (o.getClass() == Integer.class)
+            {
+                stmnt.setInt(i, ((Integer)o));
+            }
+            else if (o.getClass() == Long.class)
+            {
+                stmnt.setLong(i, ((Long)o));
+            }
+            else if (o.getClass() == Short.class)
+            {
+                stmnt.setInt(i, ((Short)o));
+            }
+            else if (o.getClass() == String.class)
+            {
+                stmnt.setString(i, (String)o);
+            }
+            else if (o.getClass() == Boolean.class)
+            {
+                stmnt.setBoolean(i, ((Boolean)o));
+            }
+            else if (o.getClass() == UUID.class)
+            {
+                stmnt.setObject(i, (UUID)o);
+            }
+            else if (o.getClass() == Instant.class)
+            {
+                stmnt.setTimestamp(i, java.sql.Timestamp.from((Instant)o));
+            }
+            else {
+                Log.error("Our class DB cannot handle object class "+o.getClass().toString()+"\n"+query);
+            }
+            i++;
+        }
+    }
+
     public synchronized void verifyConnection()
     {
+        // A new connection would not have the uncommitted writes, see verifyTransaction.
+        if (in_transaction_) return;
+
         // If a successful check was done less than 60 seconds ago, skip this.
         if (last_connection_check_ + 60*1000 < System.currentTimeMillis()) return;
 
@@ -312,29 +539,177 @@ public class DB
         }
     }
 
+    /**
+     * Like verifyConnection, but inside a transaction a lost connection is thrown instead
+     * of replaced, so that the caller rolls back and applies the writes again.
+     */
+    synchronized void verifyTransaction() throws SQLException
+    {
+        if (!in_transaction_)
+        {
+            verifyConnection();
+            return;
+        }
+        if (connection_ == null || connection_.isClosed())
+        {
+            throw new SQLException("(db) connection to "+name_+" lost inside a transaction");
+        }
+    }
+
     public synchronized int performQuery(ResultCallback cb, String query, Object... args)
     {
         int n = 0;
 
         verifyConnection();
 
-        try (PreparedStatement stmnt = prepare(query, args))
+        PreparedStatement stmnt = null;
+        boolean failed = false;
+        try
         {
-            ResultSet rs = stmnt.executeQuery();
-            while (rs.next())
+            stmnt = cached(query, args);
+            try (ResultSet rs = stmnt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    cb.handle(rs, n);
+                    n++;
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            failed = true;
+            Log.error("ERROR "+e+"\n"+query+"\n\n");
+        }
+        finally
+        {
+            release(query, stmnt, failed);
+        }
+
+        return n;
+    }
+
+    /**
+     * Like performQuery, but returns -1 if the query failed, so that
+     * the caller can tell a failure apart from an empty result.
+     */
+    public synchronized int performQueryChecked(ResultCallback cb, String query, Object... args)
+    {
+        return performQueryTimeout(0, cb, query, args);
+    }
+
+    /**
+     * Like performQueryChecked, but the query is cancelled after timeout seconds,
+     * then -1 is returned. A timeout of 0 means no timeout.
+     */
+    public synchronized int performQueryTimeout(int timeout, ResultCallback cb, String query, Object... args)
+    {
+        int n = 0;
+
+        verifyConnection();
+
+        PreparedStatement stmnt = null;
+        boolean failed = false;
+        try
+        {
+            stmnt = cached(query, args);
+            if (timeout > 0) stmnt.setQueryTimeout(timeout);
+            try (ResultSet rs = stmnt.executeQuery())
             {
-                cb.handle(rs, n);
-                n++;
+                while (rs.next())
+                {
+                    cb.handle(rs, n);
+                    n++;
+                }
             }
         }
         catch(Exception e)
         {
+            failed = true;
             Log.error("ERROR "+e+"\n"+query+"\n\n");
+            return -1;
+        }
+        finally
+        {
+            // The statement stays in the cache, later queries must not inherit the timeout.
+            if (timeout > 0 && stmnt != null && !failed) failed = !clearTimeout(stmnt);
+            release(query, stmnt, failed);
         }
 
         return n;
     }
 
+    /**
+     * Like performQueryChecked, but for large scans. The rows are streamed from
+     * the database, so the whole result is never kept in memory.
+     */
+    public synchronized int performQueryStreaming(ResultCallback cb, String query, Object... args)
+    {
+        int[] n = new int[1];
+
+        ResultSetHandler h = rs -> {
+            while (rs.next())
+            {
+                cb.handle(rs, n[0]);
+                n[0]++;
+            }
+        };
+
+        if (!performQueryStream(h, query, args)) return -1;
+        return n[0];
+    }
+
+    /**
+     * Execute the query and give the unread result set to the handler. The rows are
+     * fetched from the database fetch_size rows at a time while the handler reads them,
+     * instead of reading the whole result into memory: with a cursor on Postgres,
+     * as a streaming result set on MySQL/MariaDB and with adaptive buffering on SQL Server.
+     * Returns false if the query or the handler failed.
+     */
+    public synchronized boolean performQueryStream(ResultSetHandler h, String query, Object... args)
+    {
+        verifyConnection();
+
+        boolean auto_commit = true;
+        try
+        {
+            // Postgres only fetches in parts inside a transaction.
+            auto_commit = connection_.getAutoCommit();
+            if (type_ == DBType.POSTGRES) connection_.setAutoCommit(false);
+
+            try (PreparedStatement stmnt = connection_.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+            {
+                bindArgs(stmnt, query, args);
+                stmnt.setFetchSize(fetch_size_);
+                if (type_ == DBType.SQLSERVER)
+                {
+                    stmnt.unwrap(com.microsoft.sqlserver.jdbc.SQLServerStatement.class).setResponseBuffering("adaptive");
+                }
+                try (ResultSet rs = stmnt.executeQuery())
+                {
+                    h.handle(rs);
+                }
+            }
+            return true;
+        }
+        catch(Exception e)
+        {
+            Log.error("ERROR "+e+"\n"+query+"\n\n");
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                connection_.setAutoCommit(auto_commit);
+            }
+            catch (SQLException e)
+            {
+                Log.warning("(db) failed to restore autocommit on "+name_+"\n");
+            }
+        }
+    }
+
     // The select must never return -1, since that means no data found.
     public synchronized int performQueryInt(String query, Object... args)
     {
@@ -444,15 +819,170 @@ public class DB
         return n;
     }
 
-    public synchronized int performSyncUpdate(Table tt, String query, Object... args)
+    /**
+     * Create the temporary staging tables for a table, once per connection.
+     * Executed as plain statements since SQL Server drops temporary tables
+     * created inside a prepared statement when the statement is done.
+     */
+    public synchronized void createStaging(Table tt, String... queries) throws SQLException
     {
-        int n = 0;
+        String name = tt.database().stagingTable(tt);
+        if (staging_tables_.contains(name)) return;
+
+        verifyTransaction();
+        // A pooled connection can still have the tables from an earlier lease.
+        dropStaging(name);
 
+        for (String query : queries)
+        {
+            try (Statement stmnt = connection_.createStatement())
+            {
+                stmnt.execute(query);
+            }
+            catch (SQLException e)
+            {
+                throw new SQLException(e.getMessage()+"\n"+query, e);
+            }
+        }
+        staging_tables_.add(name);
+    }
+
+    /**
+     * Start a transaction, the following writes are committed together.
+     */
+    public synchronized void begin() throws SQLException
+    {
         verifyConnection();
+        connection_.setAutoCommit(false);
+        in_transaction_ = true;
+    }
 
-        try (PreparedStatement stmnt = prepare(query, args))
+    public synchronized void commit() throws SQLException
+    {
+        verifyTransaction();
+        try
         {
-            stmnt.executeUpdate();
+            connection_.commit();
+        }
+        finally
+        {
+            in_transaction_ = false;
+            connection_.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Roll back the transaction. The staging tables are dropped, since some databases
+     * roll back their creation and others do not, they are created again when needed.
+     * A connection lost inside the transaction is replaced here, the writes are applied again.
+     */
+    public synchronized void rollback()
+    {
+        in_transaction_ = false;
+        boolean lost = false;
+        try
+        {
+            connection_.rollback();
+            connection_.setAutoCommit(true);
+        }
+        catch (SQLException e)
+        {
+            Log.warning("(db) failed to rollback on "+name_+"\n");
+            lost = true;
+        }
+        dropStaging();
+        try
+        {
+            lost = lost && !connection_.isValid(1);
+        }
+        catch (SQLException e)
+        {
+        }
+        if (lost && !reconnect())
+        {
+            Log.error("(db) failed to reconnect to "+name_+" giving up.\n");
+            System.exit(1);
+        }
+    }
+
+    void dropStaging()
+    {
+        for (String name : staging_tables_) dropStaging(name);
+        staging_tables_.clear();
+    }
+
+    void dropStaging(String name)
+    {
+        for (String t : List.of(name, name+"_keys"))
+        {
+            try (Statement stmnt = connection_.createStatement())
+            {
+                stmnt.execute("DROP TABLE IF EXISTS "+t);
+            }
+            catch (SQLException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * Execute the queries as plain statements, optionally as a single transaction
+     * that is rolled back if any of the queries fail. Returns false on failure.
+     */
+    public synchronized boolean performSyncStatements(Table tt, List<String> queries, boolean transaction)
+    {
+        verifyConnection();
+
+        String query = null;
+        try
+        {
+            if (transaction) connection_.setAutoCommit(false);
+            try (Statement stmnt = connection_.createStatement())
+            {
+                for (String q : queries)
+                {
+                    query = q;
+                    stmnt.execute(query);
+                }
+            }
+            if (transaction) connection_.commit();
+            return true;
+        }
+        catch (Exception e)
+        {
+            Log.syncError("ERROR "+e+"\n"+query+"\n\n");
+            tt.incFailures();
+            if (transaction)
+            {
+                try
+                {
+                    connection_.rollback();
+                }
+                catch (SQLException r)
+                {
+                    Log.warning("(db) failed to rollback on "+name_+"\n");
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                if (transaction) connection_.setAutoCommit(true);
+            }
+            catch (SQLException e)
+            {
+                Log.warning("(db) failed to restore autocommit on "+name_+"\n");
+            }
+        }
+    }
+
+    public synchronized int performSyncUpdate(Table tt, String query, Object... args)
+    {
+        try
+        {
+            return executeUpdate(query, args);
         }
         catch(Exception e)
         {
@@ -460,9 +990,131 @@ public class DB
             tt.incFailures();
         }
 
+        return 0;
+    }
+
+    /**
+     * Like performSyncUpdate, but a failure is thrown instead of logged.
+     */
+    public synchronized int executeUpdate(String query, Object... args) throws SQLException
+    {
+        verifyTransaction();
+
+        try (PreparedStatement stmnt = connection_.prepareStatement(query))
+        {
+            bindArgs(stmnt, query, args);
+            return stmnt.executeUpdate();
+        }
+    }
+
+    /**
+     * Execute the parameterized query once for each row of values as a jdbc batch.
+     * The batch is executed in parts to stay below the packet limit of the database.
+     */
+    public synchronized int performSyncBatch(Table tt, String query, int[] types, List<String[]> rows)
+    {
+        try
+        {
+            return executeBatch(query, types, rows);
+        }
+        catch(Exception e)
+        {
+            Log.syncError("ERROR "+e+"\n"+query+"\n\n");
+            tt.incFailures();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Like performSyncBatch, but a failure is thrown instead of logged.
+     */
+    public synchronized int executeBatch(String query, int[] types, List<String[]> rows) throws SQLException
+    {
+        int n = 0;
+
+        verifyTransaction();
+
+        PreparedStatement stmnt = null;
+        boolean failed = true;
+        try
+        {
+            stmnt = cached(query, new Object[0]);
+            long max = maxBatchBytes();
+            long bytes = 0;
+            int pending = 0;
+            for (String[] row : rows)
+            {
+                for (int i = 0; i < row.length; i++)
+                {
+                    bind(stmnt, i+1, row[i], types[i]);
+                    if (row[i] != null) bytes += row[i].length();
+                }
+                stmnt.addBatch();
+                pending++;
+                if (bytes >= max)
+                {
+                    stmnt.executeBatch();
+                    n += pending;
+                    pending = 0;
+                    bytes = 0;
+                }
+            }
+            if (pending > 0)
+            {
+                stmnt.executeBatch();
+                n += pending;
+            }
+            failed = false;
+        }
+        finally
+        {
+            release(query, stmnt, failed);
+        }
+
         return n;
     }
 
+    /**
+     * Bind a normalized value, the driver converts the string into the sql type t.
+     */
+    void bind(PreparedStatement stmnt, int i, String v, int t) throws SQLException
+    {
+        // Only postgres binds untyped strings, e.g. uuid and json columns.
+        if (t == java.sql.Types.OTHER && type_ != DBType.POSTGRES) t = java.sql.Types.VARCHAR;
+
+        if (v == null)
+        {
+            stmnt.setNull(i, t);
+            return;
+        }
+        if (t == java.sql.Types.TIMESTAMP || t == java.sql.Types.TIME)
+        {
+            // The normalized datetime 2024-05-21T06:20:21 is not accepted by all drivers.
+            v = v.replace('T', ' ');
+        }
+        stmnt.setObject(i, v, t);
+    }
+
+    /**
+     * The size of the bound values after which a jdbc batch is executed.
+     * For MySQL this is half of max_allowed_packet, for the other
+     * databases the chunk byte limit is used.
+     */
+    synchronized long maxBatchBytes()
+    {
+        if (max_batch_bytes_ == 0)
+        {
+            max_batch_bytes_ = Settings.chunkMaxBytes();
+            if (type_ == DBType.MYSQL || type_ == DBType.MARIADB)
+            {
+                String p = performQueryString("SELECT @@max_allowed_packet");
+                if (p != null) max_batch_bytes_ = Math.min(max_batch_bytes_, Long.parseLong(p)/2);
+            }
+        }
+        return max_batch_bytes_;
+    }
+
     public String quoteTableName(String t)
     {
         if (type_ == DBType.SQLSERVER) return "["+t+"]";
@@ -476,7 +1128,19 @@ public class DB
         return ignore_tables_.contains(table);
     }
 
-    public synchronized void keepalive()
+    /**
+     * True if the table is listed in append_only_tables, rows are only ever inserted with increasing keys.
+     */
+    public boolean appendOnly(String table)
+    {
+        return append_only_tables_.contains(table);
+    }
+
+    /**
+     * Check that the database answers. The check leases its own connection from the pool,
+     * so it never waits for the workload on the connection of this DB.
+     */
+    public void keepalive()
     {
         int v = 0;
         boolean retry = false;
@@ -484,10 +1148,12 @@ public class DB
 
         do {
             Log.debug("(db) keepalive "+name_+"\n");
-            try
+            try (Connection c = pool_.getConnection();
+                 Statement stmnt = c.createStatement();
+                 ResultSet rs = stmnt.executeQuery("select 1+2+3"))
             {
                 retry = false;
-                v = performQueryInt("select 1+2+3;");
+                v = rs.next() ? rs.getInt(1) : 0;
                 if (v != 6)
                 {
                     throw new Exception("Expected 6 but got "+v);
@@ -497,13 +1163,13 @@ public class DB
             {
                 if (retries > 5)
                 {
-                    Log.error("(db) five keepalive reconnects attempts to "+name_+" failed! Giving up!\n");
+                    Log.error("(db) five keepalive attempts to "+name_+" failed! Giving up!\n");
                     System.exit(1);
                 }
                 e.printStackTrace();
                 retries++;
                 retry = true;
-                reconnect();
+                try { Thread.sleep(1000); } catch (InterruptedException x) { }
             }
         } while (retry);
     }
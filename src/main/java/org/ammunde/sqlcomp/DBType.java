@@ -23,5 +23,15 @@ public enum DBType
     POSTGRES,
     MYSQL,
     MARIADB,
-    SQLSERVER
+    SQLSERVER;
+
+    /**
+     * True if both databases render values the same way, i.e. the row hashes
+     * calculated by a and b are equal when the rows are equal.
+     */
+    public static boolean sameFamily(DBType a, DBType b)
+    {
+        if (a == b) return true;
+        return (a == MYSQL || a == MARIADB) && (b == MYSQL || b == MARIADB);
+    }
 }
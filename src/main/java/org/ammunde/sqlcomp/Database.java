@@ -17,9 +17,11 @@
 
 package org.ammunde.sqlcomp;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.DatabaseMetaData;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
@@ -27,7 +29,7 @@ import java.util.HashMap;
 import java.util.Collections;
 import org.libxmq.Query;
 
-public class Database
+public class Database implements Dialect
 {
     private DB db_;
     private List<Table> tables_;
@@ -42,6 +44,36 @@ public class Database
         loadTables(table_pattern);
     }
 
+    /**
+     * Create a view of another database that shares the already loaded
+     * table definitions but talks to the database through its own connection.
+     * @param other The database to copy.
+     */
+    protected Database(Database other)
+    {
+        db_ = new DB(other.db_);
+        table_names_ = other.table_names_;
+        max_table_name_length_ = other.max_table_name_length_;
+        status_ = other.status_;
+        tables_ = new LinkedList<>();
+        name_to_table_ = new HashMap<>();
+        for (Table t : other.tables_)
+        {
+            Table c = new Table(this, t);
+            tables_.add(c);
+            name_to_table_.put(c.lcName(), c);
+        }
+    }
+
+    /**
+     * Return a copy of this database with its own connection, suitable
+     * for a worker thread. Subclasses override this to keep their type.
+     */
+    public Database worker()
+    {
+        return new Database(this);
+    }
+
     public void track(Status s)
     {
         status_ = s;
@@ -91,6 +123,166 @@ public class Database
         return max_table_name_length_;
     }
 
+    public String sqlChar(int c)
+    {
+        return "CHAR("+c+")";
+    }
+
+    public String canonicalText(Column c)
+    {
+        return "COALESCE(CAST("+c.quotedName()+" AS VARCHAR),"+sqlChar(30)+")";
+    }
+
+    public String hash32(String text)
+    {
+        return "0";
+    }
+
+    public String castBigint(String expr)
+    {
+        return "CAST("+expr+" AS BIGINT)";
+    }
+
+    public String intDiv(String a, String b)
+    {
+        return "("+a+")/("+b+")";
+    }
+
+    public String limit(String select, int n)
+    {
+        return select+" limit "+n;
+    }
+
+    public String typedParam(Column c)
+    {
+        return "?";
+    }
+
+    public String upsert(Table into, Table source, int rows)
+    {
+        return null;
+    }
+
+    public String stagingTable(Table into)
+    {
+        return "sqlcomp_stage_"+into.lcName();
+    }
+
+    public String createStaging(Table into, Table source)
+    {
+        return "CREATE TEMPORARY TABLE "+stagingTable(into)+" AS SELECT "+source.columnsForSelect()+
+            " FROM "+into.schemaPrefix()+into.quotedName()+" WHERE 1=0";
+    }
+
+    public String createStagingKeys(Table into)
+    {
+        return "CREATE TEMPORARY TABLE "+stagingTable(into)+"_keys (pk BIGINT)";
+    }
+
+    public String updateFromStaging(Table into, Table source)
+    {
+        StringBuilder set = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (c.equalsIgnoreCase(source.primaryKey())) continue;
+            if (set.length() > 0) set.append(",");
+            set.append("\""+c+"\"=s.\""+c+"\"");
+        }
+        if (set.length() == 0) return null;
+        return "UPDATE "+into.schemaPrefix()+into.quotedName()+" AS t SET "+set+
+            " FROM "+stagingTable(into)+" s WHERE t."+source.quotedPrimaryKey()+"=s."+source.quotedPrimaryKey();
+    }
+
+    /**
+     * The parameter placeholders for rows rows of n columns, (?,?),(?,?)
+     */
+    static String placeholders(int rows, int n)
+    {
+        StringBuilder out = new StringBuilder();
+        for (int r = 0; r < rows; r++)
+        {
+            if (r > 0) out.append(",");
+            out.append("(");
+            for (int i = 0; i < n; i++) out.append(i == 0 ? "?" : ",?");
+            out.append(")");
+        }
+        return out.toString();
+    }
+
+    public String shadowTable(Table into)
+    {
+        return "sqlcomp_shadow_"+into.lcName();
+    }
+
+    public List<String> createShadow(Table into)
+    {
+        return null;
+    }
+
+    public List<String> swapShadow(Table into)
+    {
+        return null;
+    }
+
+    public boolean shadowLoses(Table into)
+    {
+        return true;
+    }
+
+    /**
+     * Number the rows with ntile in the database and return the lowest key,
+     * the highest key and the number of rows of each tile.
+     */
+    public List<KeyRange> keyRanges(Table t, int n)
+    {
+        List<KeyRange> ranges = new ArrayList<>();
+
+        ResultCallback cb = (rs, rownum) -> {
+            ranges.add(new KeyRange(rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+        };
+
+        int r = db().performQueryChecked(cb,
+                          "select min(k),max(k),count(*) from (select "+t.quotedPrimaryKey()+" as k,"+
+                          "ntile("+n+") over (order by "+t.quotedPrimaryKey()+") as tile"+
+                          " from "+db().schemaPrefix()+db().quoteTableName(t.name())+") x"+
+                          " group by tile order by tile desc");
+
+        if (r < 0) return null;
+        return ranges;
+    }
+
+    /**
+     * Insert the rows with jdbc batches, for databases without a bulk load.
+     */
+    public long bulkLoad(Table into, Table source, ResultSet rs) throws Exception
+    {
+        int[] types = source.columnTypes();
+        long n = 0;
+        try (PreparedStatement stmnt = db().connection().prepareStatement(into.insertSql(source)))
+        {
+            long max = db().maxBatchBytes();
+            long bytes = 0;
+            while (rs.next())
+            {
+                for (int i = 0; i < types.length; i++)
+                {
+                    String v = Table.value(rs.getString(i+1), types[i]);
+                    db().bind(stmnt, i+1, v, types[i]);
+                    if (v != null) bytes += v.length();
+                }
+                stmnt.addBatch();
+                n++;
+                if (bytes >= max)
+                {
+                    stmnt.executeBatch();
+                    bytes = 0;
+                }
+            }
+            stmnt.executeBatch();
+        }
+        return n;
+    }
+
     public void loadTables(String table_pattern)
     {
         try
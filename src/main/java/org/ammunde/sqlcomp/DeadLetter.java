@@ -0,0 +1,54 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * The sink rows that could not be written are appended to the dead letter file
+ * given with --dead-letter, one line per row: time table pk error
+ * separated by tabs. The rows are retried by the next sync.
+ */
+public class DeadLetter
+{
+    public static synchronized void write(Table table, List<Integer> keys, Exception e)
+    {
+        String error = (""+e).replaceAll("\\s+", " ");
+        for (int pk : keys)
+        {
+            Log.syncError("(sync-data) failed to write "+table.name()+" pk "+pk+" "+error+"\n");
+            table.incFailures();
+        }
+
+        if (Settings.deadLetter() == null) return;
+        try (PrintWriter out = new PrintWriter(new FileWriter(Settings.deadLetter(), true)))
+        {
+            for (int pk : keys)
+            {
+                out.println(Util.timestamp()+"\t"+table.name()+"\t"+pk+"\t"+error);
+            }
+        }
+        catch (Exception x)
+        {
+            Log.warning("(sync-data) failed to write "+Settings.deadLetter()+" "+x+"\n");
+        }
+    }
+}
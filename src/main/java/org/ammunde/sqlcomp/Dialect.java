@@ -0,0 +1,134 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.sql.ResultSet;
+import java.util.List;
+
+/**
+ * The sql that differs between the databases. Database implements the generic
+ * versions and Mysql, Postgres and SQLServer override them. The sync engine asks
+ * the database for these expressions instead of switching on the DBType.
+ */
+public interface Dialect
+{
+    /**
+     * Sql for a character code, used as separator and null marker in the row checksums.
+     */
+    String sqlChar(int c);
+
+    /**
+     * Sql expression that renders a column as text, as similar as possible
+     * on all databases, so that a source and sink checksum can be compared.
+     */
+    String canonicalText(Column c);
+
+    /**
+     * Sql expression for a 32 bit unsigned hash of the text, the first 32 bits of its md5.
+     */
+    String hash32(String text);
+
+    /**
+     * Sql expression casting an integer expression to a 64 bit integer.
+     */
+    String castBigint(String expr);
+
+    /**
+     * Sql expression for the integer division a/b.
+     */
+    String intDiv(String a, String b);
+
+    /**
+     * Limit the rows returned by a select to the first n rows.
+     */
+    String limit(String select, int n);
+
+    /**
+     * A parameter for a value of the column, where the database cannot infer
+     * the type of the parameter from the context, e.g. the THEN of a CASE.
+     */
+    String typedParam(Column c);
+
+    /**
+     * Parameterized sql that inserts rows rows into the table, or updates
+     * all columns of the rows whose primary key already exists.
+     * The columns are the source columns in order. Returns null if
+     * the database has no native upsert.
+     */
+    String upsert(Table into, Table source, int rows);
+
+    /**
+     * The name of the temporary staging table for set based writes into the table.
+     */
+    String stagingTable(Table into);
+
+    /**
+     * Sql that creates the empty temporary staging table, with the source columns.
+     */
+    String createStaging(Table into, Table source);
+
+    /**
+     * Sql that creates the empty temporary table for the keys to delete, with a single pk column.
+     */
+    String createStagingKeys(Table into);
+
+    /**
+     * Sql that updates all columns of the rows in the table that also exist in the staging table.
+     */
+    String updateFromStaging(Table into, Table source);
+
+    /**
+     * Split the primary keys of the table into n key ranges with about the same
+     * number of rows. The boundaries are calculated in the database, only the
+     * boundary keys are sent back. The ranges are sorted with the highest keys first.
+     * Returns null if the database could not calculate the ranges.
+     */
+    List<KeyRange> keyRanges(Table t, int n);
+
+    /**
+     * The name of the shadow table that is loaded and then swapped in to replace the table.
+     */
+    String shadowTable(Table into);
+
+    /**
+     * Sql that creates the empty shadow table with the same columns and indexes as the table,
+     * a left over shadow table is dropped first. Returns null if the database cannot copy
+     * a table definition.
+     */
+    List<String> createShadow(Table into);
+
+    /**
+     * Sql, executed as a single transaction, that replaces the table with
+     * its loaded shadow table and drops the old table.
+     */
+    List<String> swapShadow(Table into);
+
+    /**
+     * True if the table has triggers, explicit grants, foreign keys or, on Postgres, dependent
+     * views, which the copied table definition does not carry or which keep pointing at the
+     * replaced table, so the swap would lose them or fail. Also true if it cannot be checked.
+     */
+    boolean shadowLoses(Table into);
+
+    /**
+     * Load all rows of the result set into the empty table with the bulk load of the database.
+     * The columns of the result set are the source columns in order. The rows are streamed
+     * into the table, nothing is diffed. Returns the number of loaded rows.
+     */
+    long bulkLoad(Table into, Table source, ResultSet rs) throws Exception;
+}
@@ -0,0 +1,33 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+/**
+ * Decides if a source value and a different sink value are still equivalent,
+ * because the sink cannot store or render the source value exactly.
+ * Without this, such rows are updated on every sync without ever becoming equal.
+ */
+public interface Equivalence
+{
+    /**
+     * True if the normalized source value is stored as the sink value.
+     * Only called when the values are not null and not equal.
+     */
+    boolean same(String source, String sink);
+}
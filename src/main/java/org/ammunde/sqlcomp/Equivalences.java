@@ -0,0 +1,173 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The registered equivalences per source and sink database type and codec.
+ * The column plan looks them up once per column pair.
+ */
+public class Equivalences
+{
+    /**
+     * Create the equivalence for a column pair, or return null if it does not apply.
+     */
+    public interface Factory
+    {
+        Equivalence create(Column source, Column sink);
+    }
+
+    // A null from or to matches any database type.
+    record Rule(DBType from, DBType to, ColumnPlan.Codec codec, Factory factory) {}
+
+    static List<Rule> rules_ = new ArrayList<>(List.of(
+        new Rule(null, DBType.SQLSERVER, ColumnPlan.Codec.STRING, Equivalences::codePageText),
+        new Rule(null, null, ColumnPlan.Codec.REAL, Equivalences::numeric),
+        new Rule(null, null, ColumnPlan.Codec.DATETIME, Equivalences::dateTime)));
+
+    static void register(DBType from, DBType to, ColumnPlan.Codec codec, Factory factory)
+    {
+        synchronized (rules_)
+        {
+            rules_.add(new Rule(from, to, codec, factory));
+        }
+    }
+
+    /**
+     * The equivalence for a column, or null if the values must be equal.
+     * If several rules apply, then the values are equivalent if any of them says so.
+     */
+    static Equivalence lookup(DBType from, DBType to, ColumnPlan.Codec codec, Column source, Column sink)
+    {
+        if (sink == null) return null;
+
+        List<Equivalence> found = new ArrayList<>();
+        synchronized (rules_)
+        {
+            for (Rule r : rules_)
+            {
+                if (r.from() != null && r.from() != from) continue;
+                if (r.to() != null && r.to() != to) continue;
+                if (r.codec() != codec) continue;
+                Equivalence e = r.factory().create(source, sink);
+                if (e != null) found.add(e);
+            }
+        }
+        if (found.size() == 0) return null;
+        if (found.size() == 1) return found.get(0);
+        return (a, b) -> {
+            for (Equivalence e : found) if (e.same(a, b)) return true;
+            return false;
+        };
+    }
+
+    /**
+     * Text stored in a non unicode SQL Server column. Characters outside of the
+     * code page are stored as their base letter, e.g. č becomes c, or as a question
+     * mark. Zero width spaces are removed and decomposed characters are composed.
+     */
+    static Equivalence codePageText(Column source, Column sink)
+    {
+        int t = sink.type();
+        if (t != Types.CHAR && t != Types.VARCHAR && t != Types.LONGVARCHAR) return null;
+
+        return (a, b) -> {
+            a = Normalizer.normalize(a.replace("\u200B", ""), Normalizer.Form.NFC);
+            if (a.length() != b.length()) return false;
+            for (int i = 0; i < a.length(); i++)
+            {
+                char x = a.charAt(i);
+                char y = b.charAt(i);
+                if (x == y) continue;
+                if (x <= 255) return false;
+                if (y == '?') continue;
+                char base = Normalizer.normalize(String.valueOf(x), Normalizer.Form.NFD).charAt(0);
+                if (base != y) return false;
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Numbers that are rendered differently, e.g. 1.50 and 1.5 or 1E+1 and 10.
+     * A single precision float is compared with single precision, since it
+     * is rendered with more digits when the other side widens it to a double.
+     */
+    static Equivalence numeric(Column source, Column sink)
+    {
+        boolean single = source.type() == Types.REAL || sink.type() == Types.REAL;
+
+        return (a, b) -> {
+            try
+            {
+                if (new BigDecimal(a).compareTo(new BigDecimal(b)) == 0) return true;
+                return single && Float.parseFloat(a) == Float.parseFloat(b);
+            }
+            catch (NumberFormatException e)
+            {
+                // E.g. NaN or Infinity, these are only equal when rendered the same.
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Timestamps that differ in the rendering of the fraction, e.g. 06:20:21.0
+     * and 06:20:21 or .123000 and .123, or in the date and time separator.
+     * The SQL Server datetime type rounds to 1/300 of a second, then a
+     * difference of up to 3 ms is accepted.
+     */
+    static Equivalence dateTime(Column source, Column sink)
+    {
+        boolean rounded = sink.table().database().db().dbType() == DBType.SQLSERVER &&
+            "datetime".equalsIgnoreCase(sink.typeName());
+
+        return (a, b) -> {
+            a = trimFraction(a.replace(' ', 'T'));
+            b = trimFraction(b.replace(' ', 'T'));
+            if (a.equals(b)) return true;
+            if (!rounded) return false;
+            try
+            {
+                long ms = java.time.Duration.between(java.time.LocalDateTime.parse(a),
+                                                     java.time.LocalDateTime.parse(b)).toMillis();
+                return Math.abs(ms) <= 3;
+            }
+            catch (java.time.DateTimeException e)
+            {
+                return false;
+            }
+        };
+    }
+
+    static String trimFraction(String s)
+    {
+        int dot = s.lastIndexOf('.');
+        if (dot < 0 || s.indexOf(':') < 0 || dot < s.lastIndexOf(':')) return s;
+        int end = s.length();
+        while (end > dot+1 && s.charAt(end-1) == '0') end--;
+        if (end == dot+1) end = dot;
+        return s.substring(0, end);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Apply the write batches of several chunks in a single sink transaction, instead of
+ * paying a log flush for every statement in autocommit. The transaction is committed
+ * after --commit-chunks chunks or --commit-ms milliseconds, whichever comes first.
+ * If the transaction fails it is rolled back and the chunks are applied again, each
+ * in its own transaction. A chunk that still fails is split in halves that are retried,
+ * until the failing rows are isolated. Those are written to the dead letter file,
+ * all other rows are committed.
+ */
+public class GroupCommit
+{
+    /**
+     * The sink the batches are written to, a DB or a stub in the tests.
+     */
+    interface Sink
+    {
+        // Execute the batch in autocommit, failures are logged.
+        void apply(WriteBatch batch);
+        void begin() throws SQLException;
+        void execute(WriteBatch batch) throws SQLException;
+        void commit() throws SQLException;
+        void rollback();
+        // The batch writes a single row that cannot be written.
+        void deadLetter(WriteBatch batch, SQLException e);
+    }
+
+    // Writes the batches to the sink db.
+    record DBSink(DB db) implements Sink
+    {
+        public void apply(WriteBatch batch)
+        {
+            batch.apply(db);
+        }
+
+        public void begin() throws SQLException
+        {
+            db.begin();
+        }
+
+        public void execute(WriteBatch batch) throws SQLException
+        {
+            batch.execute(db);
+        }
+
+        public void commit() throws SQLException
+        {
+            db.commit();
+        }
+
+        public void rollback()
+        {
+            db.rollback();
+        }
+
+        public void deadLetter(WriteBatch batch, SQLException e)
+        {
+            DeadLetter.write(batch.table(), batch.keys(), e);
+        }
+    }
+
+    private Sink sink_;
+    private List<WriteBatch> pending_ = new ArrayList<>();
+    private long started_;
+
+    public GroupCommit(DB db)
+    {
+        this(new DBSink(db));
+    }
+
+    GroupCommit(Sink sink)
+    {
+        sink_ = sink;
+    }
+
+    /**
+     * Apply a single batch in its own transaction.
+     */
+    public static void applyOne(DB db, WriteBatch batch)
+    {
+        GroupCommit g = new GroupCommit(db);
+        g.apply(batch);
+        g.commit();
+    }
+
+    public void apply(WriteBatch batch)
+    {
+        if (Settings.commitChunks() == 0)
+        {
+            sink_.apply(batch);
+            return;
+        }
+
+        try
+        {
+            if (pending_.isEmpty())
+            {
+                sink_.begin();
+                started_ = System.currentTimeMillis();
+            }
+            pending_.add(batch);
+            sink_.execute(batch);
+        }
+        catch (SQLException e)
+        {
+            Log.verbose("(sync-data) write of "+pending_.size()+" chunks failed, "+e+"\n");
+            sink_.rollback();
+            retry();
+            return;
+        }
+
+        if (pending_.size() >= Settings.commitChunks() ||
+            System.currentTimeMillis()-started_ >= Settings.commitMs())
+        {
+            commit();
+        }
+    }
+
+    /**
+     * Commit the pending chunks, if any.
+     */
+    public void commit()
+    {
+        if (pending_.isEmpty()) return;
+
+        try
+        {
+            sink_.commit();
+            pending_.clear();
+        }
+        catch (SQLException e)
+        {
+            Log.verbose("(sync-data) commit of "+pending_.size()+" chunks failed, "+e+"\n");
+            sink_.rollback();
+            retry();
+        }
+    }
+
+    /**
+     * Apply the rolled back chunks again, one chunk per transaction.
+     */
+    void retry()
+    {
+        List<WriteBatch> batches = pending_;
+        pending_ = new ArrayList<>();
+
+        for (WriteBatch batch : batches)
+        {
+            try
+            {
+                sink_.begin();
+                sink_.execute(batch);
+                sink_.commit();
+            }
+            catch (SQLException e)
+            {
+                sink_.rollback();
+                isolate(batch, e);
+            }
+        }
+    }
+
+    /**
+     * The batch failed, apply its two halves in their own transactions and split
+     * the halves that fail again. A single row that fails is a dead letter.
+     */
+    void isolate(WriteBatch batch, SQLException e)
+    {
+        List<WriteBatch> halves = batch.split();
+        if (halves == null)
+        {
+            sink_.deadLetter(batch, e);
+            return;
+        }
+
+        for (WriteBatch half : halves)
+        {
+            try
+            {
+                sink_.begin();
+                sink_.execute(half);
+                sink_.commit();
+            }
+            catch (SQLException x)
+            {
+                sink_.rollback();
+                isolate(half, x);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterate over the chunks of a table, highest keys first, without reading
+ * all the primary keys up front. Each chunk is fetched with keyset pagination:
+ * the size highest keys below the lowest key of the previous chunk.
+ * Only the keys of the current chunk are kept in memory.
+ * The size of each chunk is taken from the sizer when the chunk is fetched.
+ */
+public class KeysetChunker implements Iterator<PK>
+{
+    /**
+     * Return the at most n highest keys from lo to hi, inclusive, sorted ascending.
+     */
+    interface Keys
+    {
+        int[] highest(long lo, long hi, int n);
+    }
+
+    private Keys keys_;
+    private ChunkSizer sizer_;
+    private long lo_;
+    private long hi_;
+    private PK next_;
+    private boolean done_;
+
+    /**
+     * Iterate over the chunks with keys from lo to hi, inclusive.
+     */
+    public KeysetChunker(Table table, ChunkSizer sizer, long lo, long hi)
+    {
+        this(table::highestPrimaryKeys, sizer, lo, hi);
+    }
+
+    KeysetChunker(Keys keys, ChunkSizer sizer, long lo, long hi)
+    {
+        keys_ = keys;
+        sizer_ = sizer;
+        lo_ = lo;
+        hi_ = hi;
+    }
+
+    public KeysetChunker(Table table, ChunkSizer sizer)
+    {
+        this(table, sizer, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next_ == null && !done_) next_ = fetch();
+        return next_ != null;
+    }
+
+    @Override
+    public PK next()
+    {
+        if (!hasNext()) throw new NoSuchElementException();
+        PK pk = next_;
+        next_ = null;
+        return pk;
+    }
+
+    PK fetch()
+    {
+        if (hi_ < lo_)
+        {
+            done_ = true;
+            return null;
+        }
+
+        int size = sizer_.size();
+        int[] keys = keys_.highest(lo_, hi_, size);
+        if (keys.length < size) done_ = true;
+        if (keys.length == 0) return null;
+
+        // The keys are sorted ascending, continue below the lowest key.
+        hi_ = (long)keys[0]-1;
+        return new PK(keys[0], keys[keys.length-1], keys);
+    }
+}
@@ -61,6 +61,10 @@ public class Log
                 Log.info("(sqlcomp) storing sync errors in: "+sync_error_file_+"\n");
                 args = Util.shiftLeft(args);
             }
+            else if (Settings.parseArg(s))
+            {
+                args = Util.shiftLeft(args);
+            }
             else break;
         }
         return args;
@@ -77,6 +81,11 @@ public class Log
         verbose_enabled_ = true;
     }
 
+    public static boolean verboseEnabled()
+    {
+        return verbose_enabled_;
+    }
+
     public static void addTimestamp()
     {
         timestamp_enabled_ = true;
@@ -93,7 +102,7 @@ public class Log
         prefix_nl_ = y;
     }
 
-    public static void verbose(String s)
+    public static synchronized void verbose(String s)
     {
         if (verbose_enabled_)
         {
@@ -103,7 +112,7 @@ public class Log
         }
     }
 
-    public static void debug(String s)
+    public static synchronized void debug(String s)
     {
         if (debug_enabled_)
         {
@@ -113,7 +122,7 @@ public class Log
         }
     }
 
-    public static void warning(String s)
+    public static synchronized void warning(String s)
     {
         if (prefix_nl_) System.err.println();
         System.err.print(timestamp());
@@ -121,21 +130,21 @@ public class Log
         System.err.print(s);
     }
 
-    public static void info(String s)
+    public static synchronized void info(String s)
     {
         if (prefix_nl_) System.out.println();
         System.out.print(timestamp());
         System.out.print(s);
     }
 
-    public static void error(String s)
+    public static synchronized void error(String s)
     {
         if (prefix_nl_) System.err.println();
         System.err.print(timestamp());
         System.err.print(s);
     }
 
-    public static void usageError(String s)
+    public static synchronized void usageError(String s)
     {
         if (prefix_nl_) System.err.println();
         System.err.print(timestamp());
@@ -148,7 +157,7 @@ public class Log
         num_sync_errors_ = 0;
     }
 
-    public static void syncError(String s)
+    public static synchronized void syncError(String s)
     {
         if (!sync_errors_found_)
         {
@@ -181,13 +190,13 @@ public class Log
         }
     }
 
-    public static void status(String s)
+    public static synchronized void status(String s)
     {
         System.err.print("\33[2K\r");
         System.err.print(s);
     }
 
-    public static void statusFinal(String s)
+    public static synchronized void statusFinal(String s)
     {
         System.err.print("\33[2K\r");
         System.err.println(s);
@@ -222,6 +222,37 @@ public class Main
                    stream-data           Listen to source changes, update sink.
                    show-source-tables    List the source tables.
                    show-sink-tables      List the sink tables.
+
+                 Options:
+                   --workers=N           Sync N tables at the same time. Default 1.
+                   --ranges=K            Split large tables into K key ranges synced in parallel. Default 1.
+                   --ranges-min-rows=N   Only split tables with at least N rows. Default 1000000.
+                   --prefetch=D          Read D chunks ahead from source and sink. Default 2.
+                   --write-queue=N       Queue N chunks of sink writes for a background writer. Default 4, 0 writes inline.
+                   --chunk-size=N        Start with N rows per chunk. Default 100.
+                   --chunk-min=N         Adapt the chunk size within min and max. Default 10 and 10000.
+                   --chunk-max=N
+                   --chunk-target-ms=T   Aim for T milliseconds per chunk. Default 500.
+                   --chunk-max-bytes=B   Keep chunks below B bytes. Default 4000000.
+                   --chunk-timeout=S     Split a chunk when reading it takes more than S seconds. Default 0, no timeout.
+                   --statement-cache=N   Keep N prepared statements open per connection. Default 64.
+                   --upsert              Write new and changed rows with multi row upserts (on duplicate key/on conflict/merge).
+                   --staging             Load the changes of a chunk into a temporary staging table and apply them set based.
+                   --no-bulk-load        Diff empty sink tables chunk by chunk instead of bulk loading them.
+                   --reload-threshold=P  Reload a table through a shadow table if P% of sampled rows differ. Default 0, never.
+                   --reload-max-rows=N   Only reload tables with at most N rows. Default 10000000.
+                   --history=FILE        Remember the outcome of the syncs of each table in FILE.
+                   --append-only-check=N Compare a sample of the older rows of append only tables every N syncs. Default 10.
+                   --commit-chunks=N     Commit the sink writes every N chunks. Default 10, 0 writes in autocommit.
+                   --commit-ms=T         Commit the sink writes at least every T milliseconds. Default 1000.
+                   --dead-letter=FILE    Append rows that cannot be written to FILE. Default sqlcomp_dead_letter.txt.
+                   --exact-compare       Only equal values are the same, e.g. 1.50 and 1.5 differ.
+                   --flap-limit=N        Update rows updated in N syncs in a row only every other sync, needs --history. Default 0, always update.
+                   --checksum            Compare server side chunk checksums, only fetch rows of chunks that differ.
+                   --row-hash            Compare server side row hashes, only fetch the rows that differ.
+                   --merkle              Recursively compare checksums of key ranges, only fetch rows of ranges that differ.
+                   --merkle-fanout=F     Split a differing range into F sub ranges. Default 16.
+                   --merkle-leaf=N       Fetch the rows when a range has at most N rows. Default 500.
                  """);
     }
 
@@ -263,37 +294,37 @@ public class Main
             return;
         }
 
-        SyncData sync = new SyncData();
-
-        ArrayList<Table> tables = new ArrayList<>(source.tables());
-        // Sync the small tables first!
-        Collections.sort(tables, Table::compareDiskSize);
-
-        int i = 1;
-        for (Table t : tables)
+        ArrayList<Table> tables = new ArrayList<>();
+        for (Table t : source.tables())
         {
             if (t.hasIntegerPrimaryKey())
             {
-                // Skip tables with bad primary keys
-                String step;
-                if (tables.size() < 100)
-                {
-                    step = String.format("%02d/%02d ", i, tables.size());
-                }
-                else
-                {
-                    step = String.format("%03d/%03d ", i, tables.size());
-                }
-
-                sync.syncData(source, sink, t.name(), step, dryrun);
+                tables.add(t);
             }
             else
             {
+                // Skip tables with bad primary keys
                 Log.warning("(sync-data) skipping table "+t.name()+" because primary key is not an integer. ("+t.primaryKey()+")\n");
             }
-            i++;
         }
 
+        int workers = Settings.workers();
+        if (workers > 1)
+        {
+            // Sync the large tables first! Otherwise a single large table
+            // started at the end will keep one worker busy long after the others are done.
+            Collections.sort(tables, Table::compareDiskSize);
+            Collections.reverse(tables);
+        }
+        else
+        {
+            // Sync the small tables first!
+            Collections.sort(tables, Table::compareDiskSize);
+        }
+
+        SyncScheduler scheduler = new SyncScheduler(source, sink, workers, dryrun);
+        scheduler.run(tables);
+
         Log.verbose("(sync-data) complete ["+table_pattern+"] "
                     +System.getenv("SQLCOMP_SOURCE_NAME")
                     +" --> "
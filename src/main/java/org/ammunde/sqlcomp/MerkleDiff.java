@@ -0,0 +1,185 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Find the differences between a source and sink table by comparing checksums
+ * of large key ranges. Only the sub ranges whose checksums differ are split
+ * further, and rows are only fetched for the leaves. The number of round trips
+ * grows with the number of changed rows, not with the size of the table.
+ */
+public class MerkleDiff
+{
+    private SyncData sync_;
+    private Table ft_;
+    private Table tt_;
+    private int fanout_;
+    private int leaf_size_;
+    private boolean dryrun_;
+    private SinkWriter writer_;
+    private ExecutorService source_reader_;
+    private ExecutorService sink_reader_;
+    // Per level, the number of ranges checked and the number of ranges pruned because the checksums matched.
+    private ArrayList<long[]> levels_ = new ArrayList<>();
+    // The leaves are diffed one at a time, so the same two buffers are reused for all leaves.
+    private ChunkBuffer from_buffer_;
+    private ChunkBuffer to_buffer_;
+
+    public MerkleDiff(SyncData sync, Table ft, Table tt, int fanout, int leaf_size, boolean dryrun, SinkWriter writer)
+    {
+        sync_ = sync;
+        ft_ = ft;
+        tt_ = tt;
+        fanout_ = fanout;
+        leaf_size_ = leaf_size;
+        dryrun_ = dryrun;
+        writer_ = writer;
+        from_buffer_ = new ChunkBuffer(ft.plan(tt));
+        to_buffer_ = new ChunkBuffer(ft.plan(tt));
+    }
+
+    /**
+     * Diff the whole table. Returns false if some checksums or leaf rows could not
+     * be read, then the caller should fall back to a chunked sync.
+     */
+    public boolean run()
+    {
+        source_reader_ = Executors.newSingleThreadExecutor(ChunkReader::daemon);
+        sink_reader_ = Executors.newSingleThreadExecutor(ChunkReader::daemon);
+        try
+        {
+            long[] fb = ft_.primaryKeyBounds();
+            long[] tb = tt_.primaryKeyBounds();
+            if (fb == null && tb == null) return true;
+
+            long lo, hi;
+            if (fb == null) { lo = tb[0]; hi = tb[1]; }
+            else if (tb == null) { lo = fb[0]; hi = fb[1]; }
+            else { lo = Math.min(fb[0], tb[0]); hi = Math.max(fb[1], tb[1]); }
+
+            ChunkSum[][] sums = checksums(lo, hi, 1);
+            if (sums == null) return false;
+
+            if (!diffRange(lo, hi, sum(sums[0][0]), sum(sums[1][0]), 0)) return false;
+        }
+        finally
+        {
+            source_reader_.shutdownNow();
+            sink_reader_.shutdownNow();
+        }
+        report();
+        return true;
+    }
+
+    static ChunkSum sum(ChunkSum s)
+    {
+        if (s == null) return new ChunkSum(0, 0);
+        return s;
+    }
+
+    /**
+     * Diff the key range lo-hi, returns false if it could not be read.
+     */
+    boolean diffRange(long lo, long hi, ChunkSum fs, ChunkSum ts, int level)
+    {
+        while (levels_.size() <= level) levels_.add(new long[2]);
+        levels_.get(level)[0]++;
+
+        if (fs.equals(ts))
+        {
+            levels_.get(level)[1]++;
+            sync_.addCounts((int)fs.count(), 0, 0, 0, (int)lo);
+            return true;
+        }
+
+        if (Math.max(fs.count(), ts.count()) <= leaf_size_ || lo == hi)
+        {
+            PK leaf = new PK((int)lo, (int)hi, new int[0]);
+            Future<ChunkBuffer> f = source_reader_.submit(() -> ft_.rows(leaf, ft_, from_buffer_));
+            Future<ChunkBuffer> t = sink_reader_.submit(() -> tt_.rows(leaf, ft_, to_buffer_));
+            ChunkBuffer from_rows = ChunkReader.get(f);
+            ChunkBuffer to_rows = ChunkReader.get(t);
+            if (from_rows == null || to_rows == null)
+            {
+                Log.verbose("(sync-data) failed to read rows of "+ft_.name()+" "+lo+"-"+hi+"\n");
+                return false;
+            }
+            sync_.diffChunk(ft_, tt_, leaf, from_rows, to_rows, false, dryrun_, 0, writer_);
+            return true;
+        }
+
+        ChunkSum[][] sums = checksums(lo, hi, fanout_);
+        if (sums == null)
+        {
+            Log.verbose("(sync-data) failed to calculate checksums for "+ft_.name()+" "+lo+"-"+hi+"\n");
+            return false;
+        }
+
+        // Like the chunked sync, start with the highest keys.
+        for (int i = fanout_-1; i >= 0; i--)
+        {
+            long from = bucketFrom(lo, hi, fanout_, i);
+            long to = bucketFrom(lo, hi, fanout_, i+1)-1;
+            if (from > to) continue;
+            if (!diffRange(from, to, sum(sums[0][i]), sum(sums[1][i]), level+1)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The first key in bucket i, is the first key k where (k-lo)*fanout/width >= i,
+     * which is how Table.bucket assigns the keys to the buckets.
+     */
+    static long bucketFrom(long lo, long hi, int fanout, int i)
+    {
+        long width = hi-lo+1;
+        return lo + (i*width+fanout-1)/fanout;
+    }
+
+    /**
+     * Calculate the checksums of the sub ranges on the source and sink concurrently.
+     */
+    ChunkSum[][] checksums(long lo, long hi, int fanout)
+    {
+        Future<ChunkSum[]> f = source_reader_.submit(() -> ft_.rangeChecksums(lo, hi, fanout, ft_));
+        Future<ChunkSum[]> t = sink_reader_.submit(() -> tt_.rangeChecksums(lo, hi, fanout, ft_));
+        ChunkSum[] fs = ChunkReader.get(f);
+        ChunkSum[] ts = ChunkReader.get(t);
+        if (fs == null || ts == null) return null;
+        return new ChunkSum[][] { fs, ts };
+    }
+
+    void report()
+    {
+        // -- merkle alfa level 0: 1 ranges 0 pruned, level 1: 16 ranges 15 pruned, ...
+        StringBuilder out = new StringBuilder();
+        out.append("-- merkle "+ft_.name());
+        for (int l = 0; l < levels_.size(); l++)
+        {
+            if (l > 0) out.append(",");
+            out.append(" level "+l+": "+levels_.get(l)[0]+" ranges "+levels_.get(l)[1]+" pruned");
+        }
+        if (dryrun_) Log.info(out.toString()+"\n");
+        else Log.verbose("(sync-data) "+out.toString().substring(3)+"\n");
+    }
+}
@@ -19,6 +19,7 @@ package org.ammunde.sqlcomp;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.DatabaseMetaData;
 import java.util.List;
 import java.util.LinkedList;
@@ -30,4 +31,136 @@ public class Mysql extends Database
     {
         super(config, table_pattern);
     }
+
+    public Mysql(Mysql other)
+    {
+        super(other);
+    }
+
+    @Override
+    public Database worker()
+    {
+        return new Mysql(this);
+    }
+
+    @Override
+    public String sqlChar(int c)
+    {
+        return "CHAR("+c+" USING utf8mb4)";
+    }
+
+    @Override
+    public String canonicalText(Column c)
+    {
+        String n = c.quotedName();
+        String e = "CAST("+n+" AS CHAR)";
+        if (c.type() == java.sql.Types.TIMESTAMP) e = "DATE_FORMAT("+n+",'%Y-%m-%d %H:%i:%s.%f')";
+        return "COALESCE("+e+","+sqlChar(30)+")";
+    }
+
+    @Override
+    public String hash32(String text)
+    {
+        return "CAST(CONV(SUBSTRING(MD5("+text+"),1,8),16,10) AS UNSIGNED)";
+    }
+
+    @Override
+    public String castBigint(String expr)
+    {
+        return "CAST("+expr+" AS SIGNED)";
+    }
+
+    @Override
+    public String intDiv(String a, String b)
+    {
+        return "("+a+") DIV ("+b+")";
+    }
+
+    @Override
+    public String upsert(Table into, Table source, int rows)
+    {
+        StringBuilder set = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (c.equalsIgnoreCase(source.primaryKey())) continue;
+            if (set.length() > 0) set.append(",");
+            set.append("\""+c+"\"=VALUES(\""+c+"\")");
+        }
+        return "INSERT INTO "+into.schemaPrefix()+into.quotedName()+" ("+source.columnsForSelect()+") VALUES "+
+            placeholders(rows, source.columns().size())+" ON DUPLICATE KEY UPDATE "+set;
+    }
+
+    @Override
+    public String updateFromStaging(Table into, Table source)
+    {
+        StringBuilder set = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (c.equalsIgnoreCase(source.primaryKey())) continue;
+            if (set.length() > 0) set.append(",");
+            set.append("t.\""+c+"\"=s.\""+c+"\"");
+        }
+        if (set.length() == 0) return null;
+        return "UPDATE "+into.schemaPrefix()+into.quotedName()+" t JOIN "+stagingTable(into)+" s"+
+            " ON t."+source.quotedPrimaryKey()+"=s."+source.quotedPrimaryKey()+" SET "+set;
+    }
+
+    /**
+     * LOAD DATA LOCAL INFILE where the driver reads the file from the rows of the result set.
+     * Requires that allowLocalInfile is enabled in the db_url and local_infile on the server.
+     */
+    @Override
+    public long bulkLoad(Table into, Table source, ResultSet rs) throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(rs, source.columnTypes());
+        try (Statement stmnt = db().connection().createStatement())
+        {
+            // The file name is never opened, the driver sends the stream instead.
+            stmnt.unwrap(org.mariadb.jdbc.Statement.class).setLocalInfileInputStream(rows);
+            stmnt.execute("LOAD DATA LOCAL INFILE 'sqlcomp.tsv' INTO TABLE "+into.schemaPrefix()+into.quotedName()+
+                          " CHARACTER SET utf8mb4 ("+source.columnsForSelect()+")");
+        }
+        return rows.rows();
+    }
+
+    @Override
+    public List<String> createShadow(Table into)
+    {
+        String shadow = into.schemaPrefix()+db().quoteTableName(shadowTable(into));
+        return List.of("DROP TABLE IF EXISTS "+shadow,
+                       "CREATE TABLE "+shadow+" LIKE "+into.schemaPrefix()+into.quotedName());
+    }
+
+    /**
+     * A single RENAME TABLE swaps both tables atomically.
+     */
+    @Override
+    public List<String> swapShadow(Table into)
+    {
+        String table = into.schemaPrefix()+into.quotedName();
+        String old = into.schemaPrefix()+db().quoteTableName("sqlcomp_old_"+into.lcName());
+        return List.of("DROP TABLE IF EXISTS "+old,
+                       "RENAME TABLE "+table+" TO "+old+", "+into.schemaPrefix()+db().quoteTableName(shadowTable(into))+" TO "+table,
+                       "DROP TABLE "+old);
+    }
+
+    /**
+     * CREATE TABLE LIKE copies neither the triggers, the table grants nor the foreign keys.
+     * The foreign keys of other tables that reference the table follow the rename to
+     * the old table, they would dangle or block the drop.
+     */
+    @Override
+    public boolean shadowLoses(Table into)
+    {
+        String schema = db().dbSchema();
+        if (schema == null || schema.length() == 0) schema = db().performQueryString("select database()");
+        int triggers = db().performQueryInt("select count(*) from information_schema.triggers"+
+                                            " where event_object_schema=? and event_object_table=?", schema, into.name());
+        int grants = db().performQueryInt("select count(*) from information_schema.table_privileges"+
+                                          " where table_schema=? and table_name=?", schema, into.name());
+        int foreign_keys = db().performQueryInt("select count(*) from information_schema.referential_constraints"+
+                                                " where constraint_schema=? and (table_name=? or referenced_table_name=?)",
+                                                schema, into.name(), into.name());
+        return triggers != 0 || grants != 0 || foreign_keys != 0;
+    }
 }
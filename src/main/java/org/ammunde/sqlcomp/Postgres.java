@@ -20,9 +20,12 @@ package org.ammunde.sqlcomp;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.DatabaseMetaData;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedList;
 import org.libxmq.Query;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 public class Postgres extends Database
 {
@@ -30,4 +33,187 @@ public class Postgres extends Database
     {
         super(config, table);
     }
+
+    public Postgres(Postgres other)
+    {
+        super(other);
+    }
+
+    @Override
+    public Database worker()
+    {
+        return new Postgres(this);
+    }
+
+    @Override
+    public String typedParam(Column c)
+    {
+        // An untyped parameter in a CASE is resolved to text, which cannot be assigned to e.g. a timestamp.
+        return "CAST(? AS "+castType(c.typeName())+")";
+    }
+
+    /**
+     * The type to cast to for a type name reported by the driver,
+     * the serial pseudo types are reported for columns with a sequence default.
+     */
+    static String castType(String type_name)
+    {
+        switch (type_name)
+        {
+        case "smallserial": return "int2";
+        case "serial": return "int4";
+        case "bigserial": return "int8";
+        }
+        return type_name;
+    }
+
+    @Override
+    public String sqlChar(int c)
+    {
+        return "chr("+c+")";
+    }
+
+    @Override
+    public String canonicalText(Column c)
+    {
+        String n = c.quotedName();
+        String e = "CAST("+n+" AS TEXT)";
+        if (c.type() == java.sql.Types.TIMESTAMP) e = "to_char("+n+",'YYYY-MM-DD HH24:MI:SS.US')";
+        return "COALESCE("+e+","+sqlChar(30)+")";
+    }
+
+    @Override
+    public String hash32(String text)
+    {
+        return "('x'||substr(md5("+text+"),1,8))::bit(32)::bigint";
+    }
+
+    /**
+     * Use the histogram of the primary key collected by analyze, then no rows
+     * have to be scanned. The histogram bounds split the rows into equally
+     * sized buckets. Falls back to ntile if there is no histogram.
+     */
+    @Override
+    public List<KeyRange> keyRanges(Table t, int n)
+    {
+        String schema = db().dbSchema();
+        if (schema == null || schema.length() == 0) schema = "public";
+
+        String bounds = db().performQueryString("select histogram_bounds::text from pg_stats"+
+                                                " where schemaname=? and tablename=? and attname=?",
+                                                schema, t.name(), t.primaryKey());
+        if (bounds == null || bounds.length() < 3) return super.keyRanges(t, n);
+
+        String[] parts = bounds.substring(1, bounds.length()-1).split(",");
+        if (parts.length <= n) return super.keyRanges(t, n);
+
+        long[] keys = new long[parts.length];
+        try
+        {
+            for (int i = 0; i < parts.length; i++) keys[i] = Long.parseLong(parts[i].trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return super.keyRanges(t, n);
+        }
+
+        // The histogram is an estimate, the row counts are estimates too.
+        long count = t.exactNumRows()/n;
+        List<KeyRange> ranges = new ArrayList<>();
+        for (int r = n-1; r >= 0; r--)
+        {
+            long from = keys[r*(keys.length-1)/n];
+            long to = keys[(r+1)*(keys.length-1)/n];
+            if (r < n-1) to--;
+            ranges.add(new KeyRange(from, to, count));
+        }
+        return ranges;
+    }
+
+    @Override
+    public String upsert(Table into, Table source, int rows)
+    {
+        StringBuilder set = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (c.equalsIgnoreCase(source.primaryKey())) continue;
+            if (set.length() > 0) set.append(",");
+            set.append("\""+c+"\"=EXCLUDED.\""+c+"\"");
+        }
+        String conflict = set.length() > 0 ? "DO UPDATE SET "+set : "DO NOTHING";
+        return "INSERT INTO "+into.schemaPrefix()+into.quotedName()+" ("+source.columnsForSelect()+") VALUES "+
+            placeholders(rows, source.columns().size())+" ON CONFLICT ("+source.quotedPrimaryKey()+") "+conflict;
+    }
+
+    /**
+     * COPY FROM STDIN where the rows of the result set are the copied text.
+     */
+    @Override
+    public long bulkLoad(Table into, Table source, ResultSet rs) throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(rs, source.columnTypes());
+        CopyManager copy = db().connection().unwrap(PGConnection.class).getCopyAPI();
+        return copy.copyIn("COPY "+into.schemaPrefix()+into.quotedName()+" ("+source.columnsForSelect()+") FROM STDIN", rows);
+    }
+
+    @Override
+    public List<String> createShadow(Table into)
+    {
+        String shadow = into.schemaPrefix()+db().quoteTableName(shadowTable(into));
+        return List.of("DROP TABLE IF EXISTS "+shadow,
+                       "CREATE TABLE "+shadow+" (LIKE "+into.schemaPrefix()+into.quotedName()+" INCLUDING ALL)");
+    }
+
+    /**
+     * The renames are transactional, readers see either the old or the new table.
+     * The serial sequences are owned by the old table, they are handed over to the
+     * new table before the old table is dropped, since the new defaults use them.
+     */
+    @Override
+    public List<String> swapShadow(Table into)
+    {
+        String table = into.schemaPrefix()+into.quotedName();
+        String old = "sqlcomp_old_"+into.lcName();
+
+        List<String> sequences = new ArrayList<>();
+        ResultCallback cb = (rs, rownum) -> {
+            sequences.add("ALTER SEQUENCE "+rs.getString(1)+" OWNED BY "+table+".\""+rs.getString(2)+"\"");
+        };
+        db().performQuery(cb,
+                          "select s.oid::regclass::text, a.attname from pg_depend d"+
+                          " join pg_class s on s.oid=d.objid and s.relkind='S'"+
+                          " join pg_attribute a on a.attrelid=d.refobjid and a.attnum=d.refobjsubid"+
+                          " where d.refobjid=CAST(? AS regclass) and d.deptype='a'", table);
+
+        List<String> swap = new ArrayList<>();
+        swap.add("DROP TABLE IF EXISTS "+into.schemaPrefix()+db().quoteTableName(old));
+        swap.add("ALTER TABLE "+table+" RENAME TO "+db().quoteTableName(old));
+        swap.add("ALTER TABLE "+into.schemaPrefix()+db().quoteTableName(shadowTable(into))+" RENAME TO "+into.quotedName());
+        swap.addAll(sequences);
+        swap.add("DROP TABLE "+into.schemaPrefix()+db().quoteTableName(old));
+        return swap;
+    }
+
+    /**
+     * LIKE INCLUDING ALL copies neither the triggers, the acl nor the foreign keys of the table.
+     * The foreign keys that reference the table and the views on it follow the renamed
+     * table, then the old table cannot be dropped.
+     */
+    @Override
+    public boolean shadowLoses(Table into)
+    {
+        String table = into.schemaPrefix()+into.quotedName();
+        int triggers = db().performQueryInt("select count(*) from pg_trigger"+
+                                            " where tgrelid=CAST(? AS regclass) and not tgisinternal", table);
+        int grants = db().performQueryInt("select count(*) from pg_class"+
+                                          " where oid=CAST(? AS regclass) and relacl is not null", table);
+        int foreign_keys = db().performQueryInt("select count(*) from pg_constraint where contype='f'"+
+                                                " and (conrelid=CAST(? AS regclass) or confrelid=CAST(? AS regclass))",
+                                                table, table);
+        int views = db().performQueryInt("select count(distinct r.ev_class) from pg_depend d"+
+                                         " join pg_rewrite r on r.oid=d.objid"+
+                                         " where d.classid='pg_rewrite'::regclass and d.refobjid=CAST(? AS regclass)"+
+                                         " and r.ev_class<>d.refobjid", table);
+        return triggers != 0 || grants != 0 || foreign_keys != 0 || views != 0;
+    }
 }
@@ -21,14 +21,19 @@ import java.util.List;
 
 public record Row (int pk, List<String> cols)
 {
-    String commaCols()
+    /**
+     * Render the columns as comma separated sql literals,
+     * using the column types of the source table.
+     */
+    String commaCols(Table source)
     {
         StringBuilder out = new StringBuilder();
         int n = 0;
         for (String c : cols)
         {
             if (n > 0) out.append(",");
-            out.append(c);
+            int t = n < source.columns().size() ? source.column(n).type() : java.sql.Types.VARCHAR;
+            out.append(Table.literal(c, t));
             n++;
         }
         return out.toString();
@@ -17,12 +17,16 @@
 
 package org.ammunde.sqlcomp;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.DatabaseMetaData;
 import java.util.List;
 import java.util.LinkedList;
 import org.libxmq.Query;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
 
 public class SQLServer extends Database
 {
@@ -30,4 +34,148 @@ public class SQLServer extends Database
     {
         super(config, table_pattern);
     }
+
+    public SQLServer(SQLServer other)
+    {
+        super(other);
+    }
+
+    @Override
+    public Database worker()
+    {
+        return new SQLServer(this);
+    }
+
+    @Override
+    public String canonicalText(Column c)
+    {
+        String n = c.quotedName();
+        String e = "CAST("+n+" AS NVARCHAR(MAX))";
+        if (c.type() == java.sql.Types.TIMESTAMP) e = "CONVERT(VARCHAR(26), CAST("+n+" AS DATETIME2(6)), 121)";
+        return "COALESCE("+e+","+sqlChar(30)+")";
+    }
+
+    @Override
+    public String hash32(String text)
+    {
+        // Hash the utf8 bytes (SQL Server 2019 or later) to get the same md5 as the other databases.
+        return "CAST(CONVERT(BINARY(4), HASHBYTES('MD5', CAST(("+text+") COLLATE Latin1_General_100_BIN2_UTF8 AS VARCHAR(MAX)))) AS BIGINT)";
+    }
+
+    @Override
+    public String limit(String select, int n)
+    {
+        // select ... becomes select top n ...
+        return "select top "+n+select.substring("select".length());
+    }
+
+    @Override
+    public String upsert(Table into, Table source, int rows)
+    {
+        StringBuilder set = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (values.length() > 0) values.append(",");
+            values.append("s.\""+c+"\"");
+            if (c.equalsIgnoreCase(source.primaryKey())) continue;
+            if (set.length() > 0) set.append(",");
+            set.append("t.\""+c+"\"=s.\""+c+"\"");
+        }
+        String matched = set.length() > 0 ? " WHEN MATCHED THEN UPDATE SET "+set : "";
+        return "MERGE INTO "+into.schemaPrefix()+into.quotedName()+" AS t"+
+            " USING (VALUES "+placeholders(rows, source.columns().size())+") AS s ("+source.columnsForSelect()+")"+
+            " ON t."+source.quotedPrimaryKey()+"=s."+source.quotedPrimaryKey()+
+            matched+
+            " WHEN NOT MATCHED THEN INSERT ("+source.columnsForSelect()+") VALUES ("+values+");";
+    }
+
+    @Override
+    public String stagingTable(Table into)
+    {
+        return "#sqlcomp_stage_"+into.lcName();
+    }
+
+    @Override
+    public String createStaging(Table into, Table source)
+    {
+        // Cast the primary key so that an identity column does not become an identity in the staging table.
+        StringBuilder cols = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (cols.length() > 0) cols.append(",");
+            if (c.equalsIgnoreCase(source.primaryKey())) cols.append("CAST(\""+c+"\" AS BIGINT) AS \""+c+"\"");
+            else cols.append("\""+c+"\"");
+        }
+        return "SELECT "+cols+" INTO "+stagingTable(into)+" FROM "+into.schemaPrefix()+into.quotedName()+" WHERE 1=0";
+    }
+
+    @Override
+    public String createStagingKeys(Table into)
+    {
+        return "CREATE TABLE "+stagingTable(into)+"_keys (pk BIGINT)";
+    }
+
+    @Override
+    public String updateFromStaging(Table into, Table source)
+    {
+        StringBuilder set = new StringBuilder();
+        for (String c : source.columnNames())
+        {
+            if (c.equalsIgnoreCase(source.primaryKey())) continue;
+            if (set.length() > 0) set.append(",");
+            set.append("t.\""+c+"\"=s.\""+c+"\"");
+        }
+        if (set.length() == 0) return null;
+        return "UPDATE t SET "+set+" FROM "+into.schemaPrefix()+into.quotedName()+" AS t JOIN "+stagingTable(into)+" AS s"+
+            " ON t."+source.quotedPrimaryKey()+"=s."+source.quotedPrimaryKey();
+    }
+
+    /**
+     * The bulk copy api of the driver reads the rows straight from the result set,
+     * the values keep their sql types and are never rendered as text.
+     */
+    @Override
+    public long bulkLoad(Table into, Table source, ResultSet rs) throws Exception
+    {
+        String table = into.schemaPrefix()+db().quoteTableName(into.name());
+        long[] rows = new long[1];
+        // The bulk copy needs the connection of the driver, not the connection of the pool.
+        try (SQLServerBulkCopy copy = new SQLServerBulkCopy(db().connection().unwrap(java.sql.Connection.class)))
+        {
+            // Keep the source primary keys of identity columns and load all rows as a single batch.
+            SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+            options.setKeepIdentity(true);
+            options.setKeepNulls(true);
+            options.setTableLock(true);
+            options.setBatchSize(0);
+            options.setBulkCopyTimeout(0);
+            copy.setBulkCopyOptions(options);
+            copy.setDestinationTableName(table);
+            for (String c : source.columnNames()) copy.addColumnMapping(c, c);
+            copy.writeToServer(counting(rs, rows));
+        }
+        return rows[0];
+    }
+
+    /**
+     * A result set that counts the rows read through it into n[0].
+     * The bulk copy does not tell how many rows it copied, the table
+     * might already contain rows when only the new rows are appended.
+     */
+    static ResultSet counting(ResultSet rs, long[] n)
+    {
+        return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, m, args) -> {
+            try
+            {
+                Object r = m.invoke(rs, args);
+                if (m.getName().equals("next") && Boolean.TRUE.equals(r)) n[0]++;
+                return r;
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        });
+    }
 }
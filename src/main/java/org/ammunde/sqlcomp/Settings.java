@@ -0,0 +1,391 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+public class Settings
+{
+    // Number of tables synced at the same time, each worker has its own source and sink connection.
+    static int workers_ = 1;
+    // Split a single large table into this many primary key ranges, synced in parallel.
+    static int ranges_ = 1;
+    // Only split tables with at least this many rows.
+    static int ranges_min_rows_ = 1000000;
+    // Number of chunks read ahead from source and sink while the current chunk is diffed.
+    static int prefetch_ = 2;
+    // Number of write batches queued for the background sink writer, 0 writes inline.
+    static int write_queue_ = 4;
+    // The number of rows per chunk adapts within min and max to take about target ms per chunk.
+    static int chunk_size_ = 100;
+    static int chunk_min_ = 10;
+    static int chunk_max_ = 10000;
+    static int chunk_target_ms_ = 500;
+    // Keep the chunks below this size, e.g. the max packet size of the sink.
+    static int chunk_max_bytes_ = 4000000;
+    // Cancel chunk reads after this many seconds and split the chunk, 0 means no timeout.
+    static int chunk_timeout_ = 0;
+    // Number of prepared statements kept open per connection, 0 closes them after use.
+    static int statement_cache_ = 64;
+    // Write new and changed rows with the native upsert of the sink.
+    static boolean upsert_ = false;
+    // Bulk load the changes of a chunk into a staging table and apply them with set based statements.
+    static boolean staging_ = false;
+    // Seed an empty sink table with the bulk load of the sink instead of diffing it.
+    static boolean bulk_load_ = true;
+    // Reload a table through a shadow table when at least this percentage of the sampled rows differ, 0 never reloads.
+    static int reload_threshold_ = 0;
+    // Only reload tables with at most this many rows.
+    static int reload_max_rows_ = 10000000;
+    // Compare a sample of the older rows of an append only table every this many syncs.
+    static int append_only_check_ = 10;
+    // The file where the outcome of previous syncs is remembered, null remembers nothing.
+    static String history_ = null;
+    // Commit the sink writes after this many chunks or milliseconds, 0 chunks writes in autocommit.
+    static int commit_chunks_ = 10;
+    static int commit_ms_ = 1000;
+    // Append the sink rows that cannot be written to this file.
+    static String dead_letter_ = "sqlcomp_dead_letter.txt";
+    // Only treat equal values as the same, without the equivalences between database types.
+    static boolean exact_compare_ = false;
+    // Skip every other update of a row that was updated in this many syncs in a row, 0 always updates.
+    static int flap_limit_ = 0;
+    // Compare server side chunk checksums before fetching the rows.
+    static boolean checksum_ = false;
+    // Compare the hashes of the rows and only fetch the rows that differ.
+    static boolean row_hash_ = false;
+    // Diff tables by recursively comparing checksums of key ranges.
+    static boolean merkle_ = false;
+    static int merkle_fanout_ = 16;
+    // Fetch the rows when a range has at most this many rows.
+    static int merkle_leaf_ = 500;
+
+    public static boolean parseArg(String s)
+    {
+        if (s.startsWith("--workers="))
+        {
+            workers_ = parsePositive(s, "--workers=".length());
+            return true;
+        }
+        if (s.startsWith("--ranges="))
+        {
+            ranges_ = parsePositive(s, "--ranges=".length());
+            return true;
+        }
+        if (s.startsWith("--ranges-min-rows="))
+        {
+            ranges_min_rows_ = parsePositive(s, "--ranges-min-rows=".length());
+            return true;
+        }
+        if (s.startsWith("--prefetch="))
+        {
+            prefetch_ = parseNumber(s, "--prefetch=".length(), 0);
+            return true;
+        }
+        if (s.startsWith("--chunk-size="))
+        {
+            chunk_size_ = parsePositive(s, "--chunk-size=".length());
+            return true;
+        }
+        if (s.startsWith("--chunk-min="))
+        {
+            chunk_min_ = parsePositive(s, "--chunk-min=".length());
+            return true;
+        }
+        if (s.startsWith("--chunk-max="))
+        {
+            chunk_max_ = parsePositive(s, "--chunk-max=".length());
+            return true;
+        }
+        if (s.startsWith("--chunk-target-ms="))
+        {
+            chunk_target_ms_ = parsePositive(s, "--chunk-target-ms=".length());
+            return true;
+        }
+        if (s.startsWith("--chunk-max-bytes="))
+        {
+            chunk_max_bytes_ = parsePositive(s, "--chunk-max-bytes=".length());
+            return true;
+        }
+        if (s.startsWith("--chunk-timeout="))
+        {
+            chunk_timeout_ = parseNumber(s, "--chunk-timeout=".length(), 0);
+            return true;
+        }
+        if (s.startsWith("--statement-cache="))
+        {
+            statement_cache_ = parseNumber(s, "--statement-cache=".length(), 0);
+            return true;
+        }
+        if (s.equals("--upsert"))
+        {
+            upsert_ = true;
+            return true;
+        }
+        if (s.equals("--staging"))
+        {
+            staging_ = true;
+            return true;
+        }
+        if (s.equals("--no-bulk-load"))
+        {
+            bulk_load_ = false;
+            return true;
+        }
+        if (s.startsWith("--reload-threshold="))
+        {
+            reload_threshold_ = parseNumber(s, "--reload-threshold=".length(), 0);
+            return true;
+        }
+        if (s.startsWith("--reload-max-rows="))
+        {
+            reload_max_rows_ = parsePositive(s, "--reload-max-rows=".length());
+            return true;
+        }
+        if (s.startsWith("--append-only-check="))
+        {
+            append_only_check_ = parsePositive(s, "--append-only-check=".length());
+            return true;
+        }
+        if (s.startsWith("--history="))
+        {
+            history_ = s.substring("--history=".length());
+            return true;
+        }
+        if (s.startsWith("--commit-chunks="))
+        {
+            commit_chunks_ = parseNumber(s, "--commit-chunks=".length(), 0);
+            return true;
+        }
+        if (s.startsWith("--commit-ms="))
+        {
+            commit_ms_ = parsePositive(s, "--commit-ms=".length());
+            return true;
+        }
+        if (s.startsWith("--dead-letter="))
+        {
+            dead_letter_ = s.substring("--dead-letter=".length());
+            if (dead_letter_.equals("")) dead_letter_ = null;
+            return true;
+        }
+        if (s.equals("--exact-compare"))
+        {
+            exact_compare_ = true;
+            return true;
+        }
+        if (s.startsWith("--flap-limit="))
+        {
+            flap_limit_ = parseNumber(s, "--flap-limit=".length(), 0);
+            return true;
+        }
+        if (s.equals("--checksum"))
+        {
+            checksum_ = true;
+            return true;
+        }
+        if (s.equals("--row-hash"))
+        {
+            row_hash_ = true;
+            return true;
+        }
+        if (s.equals("--merkle"))
+        {
+            merkle_ = true;
+            return true;
+        }
+        if (s.startsWith("--merkle-fanout="))
+        {
+            merkle_fanout_ = parseNumber(s, "--merkle-fanout=".length(), 2);
+            return true;
+        }
+        if (s.startsWith("--merkle-leaf="))
+        {
+            merkle_leaf_ = parsePositive(s, "--merkle-leaf=".length());
+            return true;
+        }
+        if (s.startsWith("--write-queue="))
+        {
+            write_queue_ = parseNumber(s, "--write-queue=".length(), 0);
+            return true;
+        }
+        return false;
+    }
+
+    public static int workers()
+    {
+        return workers_;
+    }
+
+    public static int ranges()
+    {
+        return ranges_;
+    }
+
+    public static int rangesMinRows()
+    {
+        return ranges_min_rows_;
+    }
+
+    public static int prefetch()
+    {
+        return prefetch_;
+    }
+
+    public static int writeQueue()
+    {
+        return write_queue_;
+    }
+
+    public static int chunkSize()
+    {
+        return chunk_size_;
+    }
+
+    public static int chunkMin()
+    {
+        return chunk_min_;
+    }
+
+    public static int chunkMax()
+    {
+        return chunk_max_;
+    }
+
+    public static int chunkTargetMs()
+    {
+        return chunk_target_ms_;
+    }
+
+    public static int chunkMaxBytes()
+    {
+        return chunk_max_bytes_;
+    }
+
+    public static int chunkTimeout()
+    {
+        return chunk_timeout_;
+    }
+
+    public static int statementCache()
+    {
+        return statement_cache_;
+    }
+
+    public static boolean upsert()
+    {
+        return upsert_;
+    }
+
+    public static boolean staging()
+    {
+        return staging_;
+    }
+
+    public static boolean bulkLoad()
+    {
+        return bulk_load_;
+    }
+
+    public static int reloadThreshold()
+    {
+        return reload_threshold_;
+    }
+
+    public static int reloadMaxRows()
+    {
+        return reload_max_rows_;
+    }
+
+    public static int appendOnlyCheck()
+    {
+        return append_only_check_;
+    }
+
+    public static String history()
+    {
+        return history_;
+    }
+
+    public static int commitChunks()
+    {
+        return commit_chunks_;
+    }
+
+    public static int commitMs()
+    {
+        return commit_ms_;
+    }
+
+    public static String deadLetter()
+    {
+        return dead_letter_;
+    }
+
+    public static boolean exactCompare()
+    {
+        return exact_compare_;
+    }
+
+    public static int flapLimit()
+    {
+        return flap_limit_;
+    }
+
+    public static boolean checksum()
+    {
+        return checksum_;
+    }
+
+    public static boolean rowHash()
+    {
+        return row_hash_;
+    }
+
+    public static boolean merkle()
+    {
+        return merkle_;
+    }
+
+    public static int merkleFanout()
+    {
+        return merkle_fanout_;
+    }
+
+    public static int merkleLeaf()
+    {
+        return merkle_leaf_;
+    }
+
+    static int parsePositive(String s, int offset)
+    {
+        return parseNumber(s, offset, 1);
+    }
+
+    static int parseNumber(String s, int offset, int min)
+    {
+        try
+        {
+            int n = Integer.parseInt(s.substring(offset));
+            if (n >= min) return n;
+        }
+        catch (NumberFormatException e)
+        {
+        }
+        Log.usageError("sqlcomp: Expected a number >= "+min+" in "+s+"\n");
+        System.exit(1);
+        return 0;
+    }
+}
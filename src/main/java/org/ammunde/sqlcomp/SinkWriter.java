@@ -0,0 +1,141 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Apply write batches to the sink in the background, using a dedicated
+ * sink connection. The queue is bounded, when it is full the producer waits.
+ * This lets the next chunk be read and diffed while the writes of the
+ * previous chunk are in flight. The writes are group committed.
+ */
+public class SinkWriter
+{
+    private Database sink_;
+    private BlockingQueue<WriteBatch> queue_;
+    private Thread thread_;
+    private volatile int queued_;
+    // Put in the queue to stop the writer thread.
+    private static final WriteBatch STOP = new WriteBatch(null);
+
+    public SinkWriter(Database sink, int capacity)
+    {
+        sink_ = sink.worker();
+        queue_ = new ArrayBlockingQueue<>(capacity);
+        thread_ = new Thread(this::go);
+        thread_.start();
+    }
+
+    /**
+     * Number of batches queued or being written.
+     */
+    public int queued()
+    {
+        return queued_;
+    }
+
+    public void submit(WriteBatch batch)
+    {
+        synchronized (this)
+        {
+            queued_++;
+        }
+        put(batch);
+    }
+
+    /**
+     * Wait for all queued batches to be written, then close the writer connection.
+     */
+    public void close()
+    {
+        put(STOP);
+        try
+        {
+            thread_.join();
+        }
+        catch (InterruptedException e)
+        {
+            e.printStackTrace();
+        }
+        try
+        {
+            sink_.db().close();
+        }
+        catch (java.sql.SQLException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    void put(WriteBatch batch)
+    {
+        while (true)
+        {
+            try
+            {
+                queue_.put(batch);
+                return;
+            }
+            catch (InterruptedException e)
+            {
+            }
+        }
+    }
+
+    void go()
+    {
+        GroupCommit group = new GroupCommit(sink_.db());
+        while (true)
+        {
+            WriteBatch batch;
+            try
+            {
+                // Commit the pending chunks when no new chunk arrives within the commit interval.
+                batch = queue_.poll(Settings.commitMs(), TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                continue;
+            }
+            if (batch == null || batch == STOP)
+            {
+                group.commit();
+                if (batch == STOP) return;
+                continue;
+            }
+
+            try
+            {
+                group.apply(batch);
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+                Log.syncError("ERROR "+e+"\n");
+                batch.table().incFailures();
+            }
+            synchronized (this)
+            {
+                queued_--;
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write the changes of a chunk with set based statements. The new and changed
+ * rows are bulk loaded into a temporary staging table on the sink and the keys
+ * of the deleted rows into a temporary keys table. Then a single update join,
+ * insert select and delete join apply all changes of the chunk inside the sink.
+ */
+public class StagingBatch extends WriteBatch
+{
+    private Table source_;
+    private List<String[]> rows_ = new ArrayList<>();
+    private List<Integer> row_keys_ = new ArrayList<>();
+    private List<String[]> deletes_ = new ArrayList<>();
+
+    public StagingBatch(Table table, Table source)
+    {
+        super(table);
+        source_ = source;
+    }
+
+    /**
+     * A row that is new or changed.
+     */
+    public void write(Row r)
+    {
+        rows_.add(r.cols().toArray(new String[0]));
+        row_keys_.add(r.pk());
+    }
+
+    public void delete(int pk)
+    {
+        deletes_.add(new String[] { ""+pk });
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return rows_.isEmpty() && deletes_.isEmpty();
+    }
+
+    @Override
+    public List<Integer> keys()
+    {
+        List<Integer> keys = new ArrayList<>(row_keys_);
+        for (String[] d : deletes_) keys.add(Integer.parseInt(d[0]));
+        return keys;
+    }
+
+    /**
+     * Split into a batch with the first half of the written and deleted rows and one with the rest.
+     */
+    @Override
+    public List<WriteBatch> split()
+    {
+        int n = rows_.size()+deletes_.size();
+        if (n < 2) return null;
+
+        StagingBatch a = new StagingBatch(table(), source_);
+        StagingBatch b = new StagingBatch(table(), source_);
+        for (int i = 0; i < n; i++)
+        {
+            StagingBatch half = i < n/2 ? a : b;
+            if (i < rows_.size())
+            {
+                half.rows_.add(rows_.get(i));
+                half.row_keys_.add(row_keys_.get(i));
+            }
+            else
+            {
+                half.deletes_.add(deletes_.get(i-rows_.size()));
+            }
+        }
+        return List.of(a, b);
+    }
+
+    /**
+     * The statements depend on each other, so the first failure stops the chunk.
+     */
+    @Override
+    public void apply(DB db)
+    {
+        try
+        {
+            execute(db);
+        }
+        catch (SQLException e)
+        {
+            Log.syncError("ERROR "+e+"\n\n");
+            table().incFailures();
+        }
+    }
+
+    @Override
+    public void execute(DB db) throws SQLException
+    {
+        Table tt = table();
+        Database d = tt.database();
+        String table = tt.schemaPrefix()+tt.quotedName();
+        String staging = d.stagingTable(tt);
+        String keys = staging+"_keys";
+        String pk = source_.quotedPrimaryKey();
+        String cols = source_.columnsForSelect();
+
+        db.createStaging(tt, d.createStaging(tt, source_), d.createStagingKeys(tt));
+
+        db.executeUpdate("DELETE FROM "+staging);
+        db.executeUpdate("DELETE FROM "+keys);
+
+        if (!rows_.isEmpty())
+        {
+            db.executeBatch("INSERT INTO "+staging+" ("+cols+") VALUES "+Database.placeholders(1, source_.columns().size()),
+                            source_.columnTypes(), rows_);
+
+            String update = d.updateFromStaging(tt, source_);
+            if (update != null) db.executeUpdate(update);
+
+            db.executeUpdate("INSERT INTO "+table+" ("+cols+") SELECT "+cols+" FROM "+staging+" s"+
+                             " WHERE NOT EXISTS (SELECT 1 FROM "+table+" x WHERE x."+pk+"=s."+pk+")");
+        }
+
+        if (!deletes_.isEmpty())
+        {
+            db.executeBatch("INSERT INTO "+keys+" (pk) VALUES (?)", new int[] { java.sql.Types.BIGINT }, deletes_);
+            db.executeUpdate("DELETE FROM "+table+" WHERE "+pk+" IN (SELECT pk FROM "+keys+")");
+        }
+    }
+}
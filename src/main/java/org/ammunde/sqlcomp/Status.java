@@ -57,7 +57,7 @@ public class Status
         return s;
     }
 
-    public void monitor(Table table, String monitor)
+    public synchronized void monitor(Table table, String monitor)
     {
         int c = monitor.indexOf(":");
         if (c != -1) monitor = monitor.substring(c+1);
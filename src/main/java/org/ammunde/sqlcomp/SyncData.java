@@ -18,9 +18,10 @@
 package org.ammunde.sqlcomp;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Iterator;
-import java.util.Collections;
 
 public class SyncData
 {
@@ -37,6 +38,40 @@ public class SyncData
     int last_primary_key_;
     String info_;
     int max_table_name_length_;
+    boolean use_monitor_ = true;
+    boolean running_;
+    // When a large table is split into disjoint primary key ranges,
+    // each synced by its own worker, then the progress is tracked per range.
+    long[] range_rows_;
+    long[] range_total_;
+    List<SinkWriter> writers_ = new ArrayList<>();
+    ChunkSizer sizer_;
+
+    /**
+     * When the sync is driven by the SyncScheduler, the scheduler owns the
+     * single monitor and the sync error warning for all workers.
+     */
+    void useMonitor(boolean y)
+    {
+        use_monitor_ = y;
+    }
+
+    synchronized boolean running()
+    {
+        return running_;
+    }
+
+    synchronized void setRunning()
+    {
+        running_ = true;
+    }
+
+    synchronized String renderProgress()
+    {
+        // alfa 50%
+        int p = (int)(100.0*(float)(count_rows_)/(float)total_rows_);
+        return table_+" "+p+"%";
+    }
 
     synchronized String renderStatus()
     {
@@ -56,6 +91,8 @@ public class SyncData
         if (count_inserts_ > 0) info += count_inserts_+"i ";
         if (count_updates_ > 0) info += count_updates_+"u ";
         if (count_deletes_ > 0) info += count_deletes_+"d ";
+        int queued = queuedWrites();
+        if (queued > 0) info += queued+"q ";
         if (Log.numSyncErrors() > 0) info += "\u001B[31m!errors!\u001B[0m ";
         info = info.trim();
         if (info.length() > 0) info = "("+info+")";
@@ -78,7 +115,7 @@ public class SyncData
 
         if (count_rows_ < total_rows_)
         {
-            String s = info_+Util.rightPad(table_, max_table_name_length_, ' ')+": "+p+"% ("+count_rows_+"/"+total_rows_+" pk\""+last_primary_key_+"\") "+speed+info+" | "+time;
+            String s = info_+Util.rightPad(table_, max_table_name_length_, ' ')+": "+p+"% ("+count_rows_+"/"+total_rows_+" "+renderPosition()+renderChunkSize()+") "+speed+info+" | "+time;
             sink_.monitor(sink_table_, s);
             return s;
         }
@@ -90,6 +127,54 @@ public class SyncData
         }
     }
 
+    synchronized String renderPosition()
+    {
+        // pk"4711" or for ranges: r[50% 12% 33% 100%]
+        if (range_rows_ == null) return "pk\""+last_primary_key_+"\"";
+
+        StringBuilder out = new StringBuilder();
+        out.append("r[");
+        for (int r = 0; r < range_rows_.length; r++)
+        {
+            if (r > 0) out.append(" ");
+            int p = 100;
+            if (range_total_[r] > 0) p = (int)(100.0*(float)range_rows_[r]/(float)range_total_[r]);
+            out.append(p+"%");
+        }
+        out.append("]");
+        return out.toString();
+    }
+
+    synchronized String renderChunkSize()
+    {
+        // c500 is the current number of rows per chunk.
+        if (sizer_ == null) return "";
+        return " c"+sizer_.size();
+    }
+
+    synchronized void addWriter(SinkWriter w)
+    {
+        writers_.add(w);
+    }
+
+    synchronized void removeWriter(SinkWriter w)
+    {
+        writers_.remove(w);
+    }
+
+    synchronized int queuedWrites()
+    {
+        int n = 0;
+        for (SinkWriter w : writers_) n += w.queued();
+        return n;
+    }
+
+    synchronized void addCounts(int range, int r, int i, int u, int d, int lpk)
+    {
+        if (range_rows_ != null) range_rows_[range] += r;
+        addCounts(r, i, u, d, lpk);
+    }
+
     synchronized void addCounts(int r, int i, int u, int d, int lpk)
     {
         count_rows_    += r;
@@ -113,6 +198,9 @@ public class SyncData
         count_inserts_ = 0;
         count_updates_ = 0;
         count_deletes_ = 0;
+        range_rows_ = null;
+        range_total_ = null;
+        sizer_ = null;
 
         Table ft = from.table(table);
         Table tt = to.table(table);
@@ -132,101 +220,547 @@ public class SyncData
         }
 
         total_rows_ = ft.exactNumRows();
+        setRunning();
+
+        Monitor monitor = null;
+        if (use_monitor_)
+        {
+            Log.clearSyncErrorWarning();
+            monitor = new Monitor(this::renderStatus);
+        }
+
+        // An empty sink table is seeded with all rows, only the new rows of an append only
+        // table are copied and a table where most rows differ is reloaded into a shadow table.
+        // Then there is nothing to diff.
+        boolean loaded = !dryrun && Settings.bulkLoad() && total_rows_ > 0 && tt.isEmpty() && bulkLoad(ft, tt);
+        if (!loaded && !dryrun && appendOnly(ft)) loaded = syncTail(ft, tt);
+        if (!loaded && !dryrun && Settings.reloadThreshold() > 0) loaded = reload(ft, tt);
+        if (!loaded)
+        {
+            if (!Settings.merkle() || !syncMerkle(ft, tt, dryrun))
+            {
+                syncChunked(from, to, ft, tt, dryrun);
+            }
+            if (!dryrun) SyncHistory.fullSync(table, count_inserts_, count_updates_+count_deletes_);
+        }
+
+        if (monitor != null)
+        {
+            monitor.stop();
+            Log.warnIfSyncErrorsFound();
+        }
+    }
+
+    /**
+     * Copy all source rows into the empty sink table with the bulk load of the sink.
+     * The rows stream from the source result set straight into the sink, nothing
+     * is diffed. Returns false if the load failed, then the table is synced chunk by chunk.
+     */
+    boolean bulkLoad(Table ft, Table tt)
+    {
+        Log.verbose("(sync-data) sink table "+tt.name()+" is empty, bulk loading "+total_rows_+" rows\n");
+
+        long[] loaded = new long[1];
+        boolean ok = ft.streamRows(ft, rs -> {
+            loaded[0] = tt.database().bulkLoad(tt, ft, rs);
+        });
+        if (!ok)
+        {
+            Log.warning("(sync-data) bulk load of "+tt.name()+" failed, syncing chunk by chunk instead\n");
+            return false;
+        }
+
+        Log.verbose("(sync-data) bulk loaded "+loaded[0]+" rows into "+tt.name()+"\n");
+        addCounts((int)total_rows_, (int)loaded[0], 0, 0, 0);
+        return true;
+    }
+
+    /**
+     * True if the table is configured as append only in the source, or if
+     * the previous full syncs of the table only found inserts.
+     */
+    boolean appendOnly(Table ft)
+    {
+        return ft.database().db().appendOnly(ft.lcName()) || SyncHistory.appendOnly(ft.name());
+    }
+
+    /**
+     * Sync an append only table by only copying the source rows above the highest key
+     * of the sink with the bulk load of the sink. Every --append-only-check syncs a sample
+     * of the older rows is compared. If it differs, then the table is not append only after
+     * all and false is returned, then the table is diffed chunk by chunk.
+     */
+    boolean syncTail(Table ft, Table tt)
+    {
+        long[] bounds = tt.primaryKeyBounds();
+        if (bounds == null) return false;
+        long max = bounds[1];
+
+        if (SyncHistory.tailRuns(ft.name()) % Settings.appendOnlyCheck() == 0)
+        {
+            double ratio = diffRatio(ft, tt, max);
+            if (ratio != 0)
+            {
+                if (ratio > 0)
+                {
+                    Log.warning("(sync-data) older rows of append only table "+ft.name()+" differ, syncing chunk by chunk\n");
+                    SyncHistory.notAppendOnly(ft.name());
+                }
+                return false;
+            }
+        }
+
+        Log.verbose("(sync-data) copying rows of append only table "+ft.name()+" with keys above "+max+"\n");
+        long[] loaded = new long[1];
+        boolean ok = ft.streamRows(ft, max, rs -> {
+            loaded[0] = tt.database().bulkLoad(tt, ft, rs);
+        });
+        if (!ok)
+        {
+            Log.warning("(sync-data) appending to "+tt.name()+" failed, syncing chunk by chunk instead\n");
+            return false;
+        }
+
+        SyncHistory.tailSync(ft.name());
+        addCounts((int)total_rows_, (int)loaded[0], 0, 0, 0);
+        return true;
+    }
+
+    /**
+     * Reload the whole table if the sampled share of differing rows is above the reload threshold.
+     * The rows are bulk loaded into a shadow table on the sink, which then replaces the
+     * table in a single transaction, so readers never see a half updated table.
+     * Returns false if the table should be diffed chunk by chunk instead.
+     */
+    boolean reload(Table ft, Table tt)
+    {
+        Database sink = tt.database();
+        if (total_rows_ > Settings.reloadMaxRows()) return false;
+        List<String> create = sink.createShadow(tt);
+        if (create == null) return false;
+        if (sink.shadowLoses(tt))
+        {
+            Log.warning("(sync-data) not reloading "+tt.name()+" since the swap would lose its triggers, grants, foreign keys or views,"+
+                        " syncing chunk by chunk instead\n");
+            return false;
+        }
+
+        double ratio = diffRatio(ft, tt, Long.MAX_VALUE);
+        Log.verbose("(sync-data) about "+(int)(100*ratio)+"% of the sampled rows of "+tt.name()+" differ\n");
+        if (ratio < 0 || 100*ratio < Settings.reloadThreshold()) return false;
+
+        Table shadow = tt.withName(sink.shadowTable(tt));
+        Log.verbose("(sync-data) reloading "+tt.name()+" through "+shadow.name()+"\n");
+        if (!sink.db().performSyncStatements(tt, create, false)) return false;
+
+        long[] loaded = new long[1];
+        boolean ok = ft.streamRows(ft, rs -> {
+            loaded[0] = sink.bulkLoad(shadow, ft, rs);
+        });
+        if (!ok || !sink.db().performSyncStatements(tt, sink.swapShadow(tt), true))
+        {
+            Log.warning("(sync-data) reload of "+tt.name()+" failed, syncing chunk by chunk instead\n");
+            return false;
+        }
+        // The cached statements were prepared against the replaced table.
+        sink.db().closeStatements();
+
+        Log.verbose("(sync-data) reloaded "+loaded[0]+" rows into "+tt.name()+"\n");
+        addCounts((int)total_rows_, (int)loaded[0], 0, 0, 0);
+        return true;
+    }
+
+    /**
+     * Estimate the share of rows that differ from a sample of chunks spread over the
+     * key range up to hi. A row differs if it only exists on one side or has other values.
+     * Returns -1 if the sample could not be read.
+     */
+    double diffRatio(Table ft, Table tt, long hi_key)
+    {
+        long[] bounds = ft.primaryKeyBounds();
+        if (bounds == null) return -1;
+        bounds[1] = Math.min(bounds[1], hi_key);
+        if (bounds[1] < bounds[0]) return -1;
+
+        int samples = 10;
+        long width = bounds[1]-bounds[0]+1;
+        long rows = 0;
+        long differ = 0;
+        ChunkBuffer from_buffer = new ChunkBuffer(ft.plan(tt));
+        ChunkBuffer to_buffer = new ChunkBuffer(ft.plan(tt));
+        for (int s = 0; s < samples; s++)
+        {
+            long lo = bounds[0]+s*width/samples;
+            long hi = bounds[0]+(s+1)*width/samples-1;
+            int[] keys = ft.highestPrimaryKeys(lo, hi, Settings.chunkSize());
+            if (keys.length == 0) continue;
+
+            PK chunk = new PK(keys[0], keys[keys.length-1], keys);
+            ChunkBuffer from_rows = ft.rows(chunk, ft, from_buffer);
+            ChunkBuffer to_rows = tt.rows(chunk, ft, to_buffer);
+            if (from_rows == null || to_rows == null) return -1;
+
+            int i = 0;
+            int j = 0;
+            while (i < from_rows.size() || j < to_rows.size())
+            {
+                boolean f = i < from_rows.size();
+                boolean t = j < to_rows.size();
+                if (f && t && from_rows.pk(i) == to_rows.pk(j))
+                {
+                    if (!from_rows.same(i, to_rows, j)) differ++;
+                    i++;
+                    j++;
+                }
+                else
+                {
+                    differ++;
+                    if (!t || (f && from_rows.pk(i) < to_rows.pk(j))) i++;
+                    else j++;
+                }
+                rows++;
+            }
+        }
+        if (rows == 0) return -1;
+        return (double)differ/rows;
+    }
 
-        Log.clearSyncErrorWarning();
-        Monitor monitor = new Monitor(this::renderStatus);
+    void syncChunked(Database from, Database to, Table ft, Table tt, boolean dryrun)
+    {
+        synchronized (this)
+        {
+            sizer_ = ChunkSizer.fromSettings();
+        }
 
-        List<PK> chunks = ft.chunkPrimaryKeys(100);
+        int ranges = Settings.ranges();
+        if (ranges > 1 && total_rows_ >= Settings.rangesMinRows())
+        {
+            List<KeyRange> key_ranges = keyRanges(ft, ranges);
+            if (key_ranges != null && key_ranges.size() > 1)
+            {
+                syncRanges(from, to, ft, key_ranges, dryrun);
+                return;
+            }
+        }
 
         // We start with the highest numbered keys.
         // Why? Assuming they are the most recent updated/created objects, then we sync those first.
         // Older keys are less likely to change.
-        Collections.reverse(chunks);
+        syncChunks(ft, tt, new KeysetChunker(ft, sizer_), dryrun, 0);
+    }
+
+    /**
+     * Split the source keys into ranges with about the same number of rows, highest keys first.
+     * The boundaries are calculated by the database, if it cannot, then the key range
+     * is split into equally wide ranges instead.
+     */
+    List<KeyRange> keyRanges(Table ft, int ranges)
+    {
+        List<KeyRange> key_ranges = ft.database().keyRanges(ft, ranges);
+        if (key_ranges != null) return key_ranges;
+
+        long[] bounds = ft.primaryKeyBounds();
+        if (bounds == null || bounds[1]-bounds[0] < ranges) return null;
+
+        key_ranges = new ArrayList<>();
+        long width = bounds[1]-bounds[0]+1;
+        for (int r = ranges-1; r >= 0; r--)
+        {
+            long lo = bounds[0]+r*width/ranges;
+            long hi = bounds[0]+(r+1)*width/ranges-1;
+            key_ranges.add(new KeyRange(lo, hi, ft.countRows(lo, hi)));
+        }
+        return key_ranges;
+    }
+
+    /**
+     * Sync each of the disjoint primary key ranges with its own worker
+     * and its own source and sink connections.
+     * Each range is synced with the highest keys first.
+     */
+    void syncRanges(Database from, Database to, Table ft, List<KeyRange> key_ranges, boolean dryrun)
+    {
+        String table = ft.name();
+        int ranges = key_ranges.size();
+        long[] los = new long[ranges];
+        long[] his = new long[ranges];
+        long[] totals = new long[ranges];
+        for (int r = 0; r < ranges; r++)
+        {
+            // The first range has the highest keys. Make the ranges cover all keys,
+            // also the keys in the sink outside of the source ranges.
+            los[r] = r == ranges-1 ? Integer.MIN_VALUE : key_ranges.get(r).from();
+            his[r] = r == 0 ? Integer.MAX_VALUE : key_ranges.get(r-1).from()-1;
+            totals[r] = key_ranges.get(r).count();
+        }
 
-        for (PK chunk : chunks)
+        synchronized (this)
         {
-            syncChunk(ft, tt, chunk, false, dryrun);
+            range_rows_ = new long[ranges];
+            range_total_ = totals;
+        }
+
+        Log.verbose("(sync-data) splitting "+table+" into "+ranges+" ranges\n");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < ranges; r++)
+        {
+            int range = r;
+            long lo = los[r];
+            long hi = his[r];
+            Thread thread = new Thread(() -> syncRange(from, to, table, lo, hi, range, dryrun));
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
         }
+    }
 
-        monitor.stop();
-        Log.warnIfSyncErrorsFound();
+    void syncRange(Database from, Database to, String table, long lo, long hi, int range, boolean dryrun)
+    {
+        Database f = from.worker();
+        Database t = to.worker();
+        Table ft = f.table(table);
+        Table tt = t.table(table);
+
+        syncChunks(ft, tt, new KeysetChunker(ft, sizer_, lo, hi), dryrun, range);
+
+        try
+        {
+            f.db().close();
+            t.db().close();
+        }
+        catch (java.sql.SQLException e)
+        {
+            e.printStackTrace();
+        }
     }
 
     void syncChunk(Table ft, Table tt, PK chunk, boolean stream, boolean dryrun)
     {
+        ChunkBuffer from_rows = ft.rows(chunk, ft, new ChunkBuffer(ft.plan(tt)));
+        ChunkBuffer to_rows = tt.rows(chunk, ft, new ChunkBuffer(ft.plan(tt))); // Note that we use the source as reference for column names.
+        if (from_rows == null || to_rows == null)
+        {
+            Log.warning("(sync-data) failed to read "+ft.name()+" pk "+chunk.from()+"-"+chunk.to()+" skipping\n");
+            return;
+        }
+
+        diffChunk(ft, tt, chunk, from_rows, to_rows, stream, dryrun, 0, null);
+    }
+
+    /**
+     * Diff the table by recursively comparing checksums of key ranges.
+     * Returns false if the checksums could not be calculated, or never match
+     * since the source and sink are different database families.
+     */
+    boolean syncMerkle(Table ft, Table tt, boolean dryrun)
+    {
+        if (!DBType.sameFamily(ft.database().db().dbType(), tt.database().db().dbType()))
+        {
+            Log.verbose("(sync-data) checksums of "+ft.name()+" never match between different database families,"+
+                        " skipping the merkle diff\n");
+            return false;
+        }
+
+        SinkWriter writer = startWriter(tt, dryrun);
+        try
+        {
+            MerkleDiff diff = new MerkleDiff(this, ft, tt, Settings.merkleFanout(), Settings.merkleLeaf(), dryrun, writer);
+            if (!diff.run())
+            {
+                Log.warning("(sync-data) merkle diff of "+ft.name()+" failed, falling back to chunked sync\n");
+                // The chunked sync counts the rows again from the start.
+                count_rows_ = 0;
+                return false;
+            }
+            return true;
+        }
+        finally
+        {
+            stopWriter(writer);
+        }
+    }
+
+    SinkWriter startWriter(Table tt, boolean dryrun)
+    {
+        if (dryrun || Settings.writeQueue() == 0) return null;
+
+        SinkWriter writer = new SinkWriter(tt.database(), Settings.writeQueue());
+        addWriter(writer);
+        return writer;
+    }
+
+    void stopWriter(SinkWriter writer)
+    {
+        if (writer == null) return;
+
+        writer.close();
+        removeWriter(writer);
+    }
+
+    /**
+     * Sync all chunks, the source and sink rows are read concurrently
+     * and prefetched by a ChunkReader.
+     */
+    void syncChunks(Table ft, Table tt, Iterator<PK> chunks, boolean dryrun, int range)
+    {
+        ChunkReader reader = new ChunkReader(ft, tt, chunks, Settings.prefetch(), sizer_);
+        SinkWriter writer = startWriter(tt, dryrun);
+        try
+        {
+            boolean checksums = Settings.checksum();
+            reader.useChecksums(checksums);
+            reader.useRowHashes(Settings.rowHash());
+            // Count the chunks where the checksums were equal and where
+            // the checksums differed but the rows turned out to be the same.
+            int num_equal = 0;
+            int num_false = 0;
+
+            long start = System.currentTimeMillis();
+            while (reader.hasNext())
+            {
+                ChunkRows rows = reader.next();
+                int num_rows = rows.chunk().keys().length;
+                if (rows.unchanged())
+                {
+                    num_equal++;
+                    addCounts(range, num_rows, 0, 0, 0, rows.chunk().from());
+                    long now = System.currentTimeMillis();
+                    sizer_.observe(num_rows, now-start, 0);
+                    start = now;
+                    continue;
+                }
+                if (rows.num_same() > 0)
+                {
+                    addCounts(range, rows.num_same(), 0, 0, 0, rows.chunk().from());
+                }
+                int changes = diffChunk(ft, tt, rows.chunk(), rows.from_rows(), rows.to_rows(), false, dryrun, range, writer);
+
+                // The time includes waiting for the reads and for room in the write queue.
+                long now = System.currentTimeMillis();
+                sizer_.observe(num_rows, now-start, rows.from_rows().bytes());
+                start = now;
+                reader.recycle(rows);
+                if (checksums && changes == 0)
+                {
+                    num_false++;
+                    if (checksumsNeverMatch(num_equal, num_false))
+                    {
+                        Log.verbose("(sync-data) checksums of "+ft.name()+" never match, disabling checksums for this table\n");
+                        checksums = false;
+                        reader.useChecksums(false);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+            stopWriter(writer);
+        }
+    }
+
+    /**
+     * True if no chunk had equal checksums and the last chunks had different checksums
+     * but equal rows. The source and sink never agree, probably different databases
+     * that render the values differently. Then the checksums only waste round trips.
+     */
+    static boolean checksumsNeverMatch(int num_equal, int num_false)
+    {
+        return num_equal == 0 && num_false >= 20;
+    }
+
+    /**
+     * Compare the source and sink rows of a chunk and write the differences to the sink.
+     * If a writer is given, then the writes are queued on it instead of executed here.
+     * An unknown sink row is known to differ, all its columns are updated.
+     * The rows are compared in the buffers, a Row is only created for the rows that are written.
+     * Returns the number of inserted, updated and deleted rows.
+     */
+    int diffChunk(Table ft, Table tt, PK chunk, ChunkBuffer from_rows, ChunkBuffer to_rows,
+                  boolean stream, boolean dryrun, int range, SinkWriter writer)
+    {
+        // Only render the changes as sql text when they are printed.
+        boolean show = dryrun || stream || Log.verboseEnabled();
+        int[] types = ft.columnTypes();
+        int[] pk_type = { java.sql.Types.INTEGER };
+        // The changes are either bulk loaded into a staging table and applied with set based statements,
+        // or the new and changed rows are collected and written with multi row upserts.
+        StagingBatch staged = Settings.staging() ? new StagingBatch(tt, ft) : null;
+        boolean upsert = staged == null && Settings.upsert() && tt.upsertSql(ft, 1) != null;
+        List<Row> upserts = new ArrayList<>();
+        // The changed rows grouped by the set of changed columns, each group becomes a single update.
+        Map<List<Integer>,List<Row>> updates = new LinkedHashMap<>();
+
+        WriteBatch batch = staged != null ? staged : new WriteBatch(tt);
+
         StringBuilder inserts = new StringBuilder();
         inserts.append("INSERT INTO "+tt.schemaPrefix()+tt.quotedName()+" ("+ft.columnsForSelect()+") VALUES ");
 
         StringBuilder deletes = new StringBuilder();
         deletes.append("DELETE FROM "+tt.schemaPrefix()+tt.quotedName()+" WHERE "+ft.quotedPrimaryKey()+" in (");
 
-        StringBuilder updates = new StringBuilder();
-
         int num_inserts = 0;
         int num_oks = 0;
         int num_deletes = 0;
         int num_updates = 0;
 
-        ArrayList<Row> from_rows = ft.rows(chunk, ft);
-        ArrayList<Row> to_rows = tt.rows(chunk, ft); // Note that we use the source as reference for column names.
-
         int i = 0;
         int j = 0;
         while (true)
         {
-            Row f = null;
-            if (i < from_rows.size()) f = from_rows.get(i);
-            Row t = null;
-            if (j < to_rows.size()) t = to_rows.get(j);
+            boolean has_f = i < from_rows.size();
+            boolean has_t = j < to_rows.size();
 
-            if (f != null && t != null)
+            if (has_f && has_t)
             {
-                if (f.pk() == t.pk())
+                int fpk = from_rows.pk(i);
+                int tpk = to_rows.pk(j);
+                if (fpk == tpk)
                 {
-                    if (f.cols().size() != t.cols().size())
-                    {
-                        Log.warning("(sync-data) mismatch table definition "+ft.name()+" skipping update\n"
-                                    +f.commaCols()+"\n"
-                                    +t.commaCols()+"\n");
-                    }
-                    else if (!Compare.same(f.cols(), t.cols()))
+                    boolean differ = !from_rows.same(i, to_rows, j);
+                    if (differ && !dryrun && !stream) differ = !flapping(ft, fpk);
+                    if (differ)
                     {
-                        StringBuilder update = new StringBuilder();
-                        update.append("UPDATE "+tt.schemaPrefix()+
-                                      tt.quotedName()+" SET ");
-
-                        Iterator<String> cn = ft.columnNames().iterator();
-                        Iterator<String> x = f.cols().iterator();
-                        Iterator<String> y = t.cols().iterator();
-                        int num_cols = 0;
-                        while (true)
+                        List<Integer> changed = from_rows.changed(i, to_rows, j);
+                        Row f = from_rows.row(i);
+                        if (changed.size() == 0)
                         {
-                            if (!x.hasNext()) break;
-                            String n = cn.next();
-                            String a = x.next();
-                            String b = y.next();
-
-                            if ((a == null && b != null) ||
-                                (a != null && b == null) ||
-                                (a != null && b != null && !a.equals(b)))
-                            {
-                                if (num_cols > 0) update.append(",");
-                                num_cols++;
-                                update.append("\""+n+"\"="+a);
-                            }
+                            Log.error("INTERNAL ERROR:\n"+f.commaCols(ft)+"\n"+to_rows.row(j).commaCols(ft));
+                            System.exit(1);
                         }
-                        if (num_cols == 0)
+
+                        if (staged != null) staged.write(f);
+                        else if (upsert) upserts.add(f);
+                        else updates.computeIfAbsent(changed, k -> new ArrayList<>()).add(f);
+
+                        if (show)
                         {
-                            Log.error("INTERNAL ERROR:\n"+f.commaCols()+"\n"+t.commaCols());
-                            System.exit(1);
+                            StringBuilder update = new StringBuilder();
+                            update.append("UPDATE "+tt.schemaPrefix()+tt.quotedName()+" SET ");
+                            for (int k = 0; k < changed.size(); k++)
+                            {
+                                if (k > 0) update.append(",");
+                                int col = changed.get(k);
+                                update.append("\""+ft.columnNames().get(col)+"\"="+Table.literal(f.cols().get(col), types[col]));
+                            }
+                            update.append(" WHERE "+ft.quotedPrimaryKey()+"="+f.pk());
+                            String u = update.toString();
+                            if (dryrun) Log.info(u+"\n");
+                            else if (stream) Log.verbose("(stream-data) "+u+"\n");
+                            else Log.verbose("(sync-data) "+u+"\n");
                         }
-                        update.append(" WHERE "+ft.quotedPrimaryKey()+"="+f.pk());
-                        String u = update.toString();
-                        if (updates.length() > 0) updates.append(";");
-                        updates.append(u);
-                        if (dryrun) Log.info(u+"\n");
-                        else if (stream) Log.verbose("(stream-data) "+u+"\n");
-                        else Log.verbose("sync-data) "+u+"\n");
                         num_updates++;
                         tt.incUpdates();
                     }
@@ -237,35 +771,46 @@ public class SyncData
                     i++;
                     j++;
                 }
-                else if (f.pk() > t.pk())
+                else if (fpk > tpk)
                 {
                     if (num_deletes > 0) deletes.append(",");
-                    deletes.append(t.pk());
+                    deletes.append(tpk);
+                    if (staged != null) staged.delete(tpk);
+                    else batch.add(tt.deleteSql(ft), pk_type, new String[] { ""+tpk }, tpk);
                     num_deletes++;
                     tt.incDeletes();
                     j++;
                 }
-                else if (f.pk() < t.pk())
+                else if (fpk < tpk)
                 {
-                    if (num_inserts > 0) inserts.append(",");
+                    Row f = from_rows.row(i);
+                    if (show) inserts.append((num_inserts > 0 ? "," : "")+"("+f.commaCols(ft)+")");
                     num_inserts++;
-                    inserts.append("("+f.commaCols()+")");
+                    if (staged != null) staged.write(f);
+                    else if (upsert) upserts.add(f);
+                    else batch.add(tt.insertSql(ft), types, from_rows.values(i), fpk);
                     tt.incInserts();
                     i++;
                 }
             }
-            else if (f != null && t == null)
+            else if (has_f)
             {
-                if (num_inserts > 0) inserts.append(",");
+                Row f = from_rows.row(i);
+                if (show) inserts.append((num_inserts > 0 ? "," : "")+"("+f.commaCols(ft)+")");
                 num_inserts++;
-                inserts.append("("+f.commaCols()+")");
+                if (staged != null) staged.write(f);
+                else if (upsert) upserts.add(f);
+                else batch.add(tt.insertSql(ft), types, from_rows.values(i), f.pk());
                 tt.incInserts();
                 i++;
             }
-            else if (f == null && t != null)
+            else if (has_t)
             {
+                int tpk = to_rows.pk(j);
                 if (num_deletes > 0) deletes.append(",");
-                deletes.append(t.pk());
+                deletes.append(tpk);
+                if (staged != null) staged.delete(tpk);
+                else batch.add(tt.deleteSql(ft), pk_type, new String[] { ""+tpk }, tpk);
                 num_deletes++;
                 tt.incDeletes();
                 j++;
@@ -276,18 +821,23 @@ public class SyncData
                 break;
             }
         }
+
+        if (upserts.size() > 0)
+        {
+            addUpserts(batch, ft, tt, upserts, types);
+        }
+
+        if (updates.size() > 0)
+        {
+            addUpdates(batch, ft, tt, updates, types);
+        }
+
         if (num_inserts > 0)
         {
             String ins = inserts.toString();
             if (dryrun) Log.info(ins+"\n");
             else if (stream) Log.verbose("(stream-data) "+ins+"\n");
             // Do not print batch inserts, too many of them.
-            if (!dryrun) tt.database().db().performSyncUpdate(tt, ins);
-        }
-
-        if (num_updates > 0)
-        {
-            if (!dryrun) tt.database().db().performSyncUpdate(tt, updates.toString());
         }
 
         if (num_deletes > 0)
@@ -297,9 +847,128 @@ public class SyncData
             if (dryrun) Log.info(d+"\n");
             else if (stream) Log.verbose("(stream-data) "+d+"\n");
             else Log.verbose("(sync-data) "+d+"\n");
-            if (!dryrun) tt.database().db().performSyncUpdate(tt, d);
         }
 
-        addCounts(from_rows.size(), num_inserts, num_updates, num_deletes, chunk.from());
+        if (!dryrun && !batch.isEmpty())
+        {
+            if (writer != null) writer.submit(batch);
+            else GroupCommit.applyOne(tt.database().db(), batch);
+        }
+
+        addCounts(range, from_rows.size(), num_inserts, num_updates, num_deletes, chunk.from());
+
+        return num_inserts+num_updates+num_deletes;
+    }
+
+    /**
+     * Record that the row differs and return true if it differed in the last
+     * --flap-limit syncs as well. Then the sink does not store the source value,
+     * updating it again only adds to the churn.
+     */
+    static boolean flapping(Table ft, int pk)
+    {
+        if (Settings.flapLimit() == 0 || SyncHistory.flapRuns(ft.name(), pk) < Settings.flapLimit())
+        {
+            SyncHistory.updated(ft.name(), pk);
+            return false;
+        }
+
+        Log.verbose("(sync-data) skipping update of flapping row "+pk+" in "+ft.name()+"\n");
+        SyncHistory.skipped(ft.name(), pk);
+        return true;
+    }
+
+    /**
+     * Add the rows as multi row upserts. SQL Server allows at most 2100
+     * parameters in a statement, so the number of rows per upsert is limited.
+     */
+    static void addUpserts(WriteBatch batch, Table ft, Table tt, List<Row> rows, int[] types)
+    {
+        int per_statement = Math.max(1, Math.min(1000, 2000/types.length));
+        for (int from = 0; from < rows.size(); from += per_statement)
+        {
+            List<Row> part = rows.subList(from, Math.min(rows.size(), from+per_statement));
+            String[] values = new String[part.size()*types.length];
+            int[] part_types = new int[values.length];
+            List<WriteBatch.Single> singles = new ArrayList<>();
+            int k = 0;
+            for (Row r : part)
+            {
+                for (int c = 0; c < types.length; c++)
+                {
+                    values[k] = r.cols().get(c);
+                    part_types[k] = types[c];
+                    k++;
+                }
+                singles.add(new WriteBatch.Single(tt.upsertSql(ft, 1), types, r.cols().toArray(new String[0]), r.pk()));
+            }
+            batch.add(tt.upsertSql(ft, part.size()), part_types, values, singles);
+        }
+    }
+
+    /**
+     * Add an update per group of rows with the same changed columns.
+     * A group with several rows is written as a single statement:
+     * UPDATE t SET a=CASE pk WHEN ? THEN ? ... END, b=... WHERE pk IN (?,...)
+     */
+    static void addUpdates(WriteBatch batch, Table ft, Table tt, Map<List<Integer>,List<Row>> updates, int[] types)
+    {
+        for (Map.Entry<List<Integer>,List<Row>> e : updates.entrySet())
+        {
+            List<Integer> changed = e.getKey();
+            List<Row> rows = e.getValue();
+            // Two parameters per changed column and one for the key, for each row.
+            int per_row = 2*changed.size()+1;
+            int per_statement = Math.max(1, Math.min(1000, 2000/per_row));
+            for (int from = 0; from < rows.size(); from += per_statement)
+            {
+                List<Row> part = rows.subList(from, Math.min(rows.size(), from+per_statement));
+                String[] values = new String[part.size()*per_row];
+                int[] part_types = new int[values.length];
+                int k = 0;
+                if (part.size() == 1)
+                {
+                    WriteBatch.Single s = singleUpdate(ft, tt, part.get(0), changed, types);
+                    batch.add(s.sql(), s.types(), s.values(), s.pk());
+                    continue;
+                }
+                for (int c : changed)
+                {
+                    for (Row r : part)
+                    {
+                        values[k] = ""+r.pk();
+                        part_types[k++] = java.sql.Types.INTEGER;
+                        values[k] = r.cols().get(c);
+                        part_types[k++] = types[c];
+                    }
+                }
+                List<WriteBatch.Single> singles = new ArrayList<>();
+                for (Row r : part)
+                {
+                    values[k] = ""+r.pk();
+                    part_types[k++] = java.sql.Types.INTEGER;
+                    singles.add(singleUpdate(ft, tt, r, changed, types));
+                }
+                batch.add(tt.groupedUpdateSql(ft, changed, part.size()), part_types, values, singles);
+            }
+        }
+    }
+
+    /**
+     * The update of the changed columns of a single row, the changed values followed by the primary key.
+     */
+    static WriteBatch.Single singleUpdate(Table ft, Table tt, Row r, List<Integer> changed, int[] types)
+    {
+        String[] values = new String[changed.size()+1];
+        int[] value_types = new int[values.length];
+        int k = 0;
+        for (int c : changed)
+        {
+            values[k] = r.cols().get(c);
+            value_types[k++] = types[c];
+        }
+        values[k] = ""+r.pk();
+        value_types[k] = java.sql.Types.INTEGER;
+        return new WriteBatch.Single(tt.updateSql(ft, changed), value_types, values, r.pk());
     }
 }
@@ -0,0 +1,253 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Remembers how the previous syncs of each table went, in the file given with --history.
+ * Each line is: table insert_only_runs tail_runs
+ * insert_only_runs counts the full syncs in a row that inserted rows and changed none,
+ * a sync that found nothing to do does not count, since it says nothing about the table.
+ * tail_runs counts the append only syncs since the older rows were last checked.
+ *
+ * The rows that are updated again and again, because the sink never stores the
+ * source value, are remembered in the file with .flapping appended.
+ * Each line is: table pk runs
+ * runs counts the full syncs in a row that updated the row, a sync that skipped
+ * the update takes one run away, so the row is updated again by the next sync.
+ */
+public class SyncHistory
+{
+    // A table is treated as append only after this many full syncs in a row with only inserts.
+    // This is a guess from the history, the sampled check of the older rows catches a wrong guess.
+    static final int APPEND_ONLY_RUNS = 3;
+
+    // At most this many updated rows are tracked per table.
+    static final int MAX_FLAPPING = 10000;
+
+    static Map<String,int[]> tables_;
+    // Per table, the number of full syncs in a row that updated each row.
+    static Map<String,Map<Integer,Integer>> flapping_;
+    // Per table, the rows updated by the current sync.
+    static Map<String,Set<Integer>> updated_ = new HashMap<>();
+    // Per table, the rows the current sync did not update since they are flapping.
+    static Map<String,Set<Integer>> skipped_ = new HashMap<>();
+
+    static synchronized int[] get(String table)
+    {
+        load();
+        return tables_.computeIfAbsent(table.toLowerCase(), k -> new int[2]);
+    }
+
+    /**
+     * True if the last full syncs of the table only inserted rows.
+     */
+    public static synchronized boolean appendOnly(String table)
+    {
+        if (Settings.history() == null) return false;
+        return get(table)[0] >= APPEND_ONLY_RUNS;
+    }
+
+    public static synchronized int tailRuns(String table)
+    {
+        if (Settings.history() == null) return 0;
+        return get(table)[1];
+    }
+
+    /**
+     * The number of previous full syncs in a row that updated the row.
+     */
+    public static synchronized int flapRuns(String table, int pk)
+    {
+        if (Settings.history() == null) return 0;
+        load();
+        Map<Integer,Integer> f = flapping_.get(table.toLowerCase());
+        if (f == null) return 0;
+        return f.getOrDefault(pk, 0);
+    }
+
+    /**
+     * Record that the current sync updates the row.
+     */
+    public static synchronized void updated(String table, int pk)
+    {
+        if (Settings.history() == null) return;
+        Set<Integer> u = updated_.computeIfAbsent(table.toLowerCase(), k -> new HashSet<>());
+        if (u.size() < MAX_FLAPPING) u.add(pk);
+    }
+
+    /**
+     * Record that the current sync skips the update of the flapping row.
+     */
+    public static synchronized void skipped(String table, int pk)
+    {
+        if (Settings.history() == null) return;
+        skipped_.computeIfAbsent(table.toLowerCase(), k -> new HashSet<>()).add(pk);
+    }
+
+    /**
+     * Record a full sync of the table that inserted and changed (updated or deleted) the given
+     * number of rows. Only a sync with inserts and no changes extends the insert only runs.
+     */
+    public static synchronized void fullSync(String table, int inserts, int changes)
+    {
+        if (Settings.history() == null) return;
+        int[] h = get(table);
+        if (changes > 0) h[0] = 0;
+        else if (inserts > 0) h[0]++;
+        h[1] = 0;
+        save();
+
+        // The rows neither updated nor skipped by this sync are equal, they are no longer flapping.
+        String key = table.toLowerCase();
+        Map<Integer,Integer> before = flapping_.getOrDefault(key, Map.of());
+        Map<Integer,Integer> after = new TreeMap<>();
+        int again = 0;
+        for (int pk : updated_.getOrDefault(key, Set.of()))
+        {
+            int runs = before.getOrDefault(pk, 0)+1;
+            after.put(pk, runs);
+            if (runs > 1) again++;
+        }
+        for (int pk : skipped_.getOrDefault(key, Set.of()))
+        {
+            int runs = before.getOrDefault(pk, 0)-1;
+            if (runs > 0) after.put(pk, runs);
+        }
+        updated_.remove(key);
+        skipped_.remove(key);
+        if (after.isEmpty()) flapping_.remove(key);
+        else flapping_.put(key, after);
+        if (again > 0)
+        {
+            Log.verbose("(history) "+again+" rows of "+table+" were updated again by this sync\n");
+        }
+        saveFlapping();
+    }
+
+    /**
+     * Record an append only sync of the table.
+     */
+    public static synchronized void tailSync(String table)
+    {
+        if (Settings.history() == null) return;
+        get(table)[1]++;
+        save();
+    }
+
+    /**
+     * Record that the sampled older rows of an append only table differ,
+     * the table has to prove itself insert only again.
+     */
+    public static synchronized void notAppendOnly(String table)
+    {
+        if (Settings.history() == null) return;
+        int[] h = get(table);
+        h[0] = 0;
+        h[1] = 0;
+        save();
+    }
+
+    static void load()
+    {
+        if (tables_ != null) return;
+        tables_ = new TreeMap<>();
+
+        Path file = Path.of(Settings.history());
+        if (!Files.exists(file)) return;
+        try
+        {
+            for (String line : Files.readAllLines(file))
+            {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 3) continue;
+                tables_.put(parts[0], new int[] { Integer.parseInt(parts[1]), Integer.parseInt(parts[2]) });
+            }
+        }
+        catch (Exception e)
+        {
+            Log.warning("(history) failed to read "+file+" "+e+"\n");
+        }
+        loadFlapping();
+    }
+
+    static void loadFlapping()
+    {
+        flapping_ = new TreeMap<>();
+
+        Path file = Path.of(Settings.history()+".flapping");
+        if (!Files.exists(file)) return;
+        try
+        {
+            for (String line : Files.readAllLines(file))
+            {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 3) continue;
+                flapping_.computeIfAbsent(parts[0], k -> new TreeMap<>())
+                    .put(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            }
+        }
+        catch (Exception e)
+        {
+            Log.warning("(history) failed to read "+file+" "+e+"\n");
+        }
+    }
+
+    static void save()
+    {
+        try (PrintWriter out = new PrintWriter(Settings.history()))
+        {
+            for (Map.Entry<String,int[]> e : tables_.entrySet())
+            {
+                out.println(e.getKey()+" "+e.getValue()[0]+" "+e.getValue()[1]);
+            }
+        }
+        catch (Exception e)
+        {
+            Log.warning("(history) failed to write "+Settings.history()+" "+e+"\n");
+        }
+    }
+
+    static void saveFlapping()
+    {
+        String file = Settings.history()+".flapping";
+        try (PrintWriter out = new PrintWriter(file))
+        {
+            for (Map.Entry<String,Map<Integer,Integer>> t : flapping_.entrySet())
+            {
+                for (Map.Entry<Integer,Integer> e : t.getValue().entrySet())
+                {
+                    out.println(t.getKey()+" "+e.getKey()+" "+e.getValue());
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            Log.warning("(history) failed to write "+file+" "+e+"\n");
+        }
+    }
+}
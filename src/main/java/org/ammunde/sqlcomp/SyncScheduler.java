@@ -0,0 +1,192 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Sync a list of tables using a fixed number of worker threads.
+ * Each worker has its own source and sink connection and syncs
+ * one table at a time. A single monitor renders the progress of all workers.
+ */
+public class SyncScheduler
+{
+    Database source_;
+    Database sink_;
+    boolean dryrun_;
+    int num_workers_;
+    int num_tables_;
+    int num_done_;
+    LinkedList<Table> queue_ = new LinkedList<>();
+    List<String> steps_ = new ArrayList<>();
+    List<SyncData> running_ = new ArrayList<>();
+
+    public SyncScheduler(Database source, Database sink, int num_workers, boolean dryrun)
+    {
+        source_ = source;
+        sink_ = sink;
+        num_workers_ = num_workers;
+        dryrun_ = dryrun;
+    }
+
+    public void run(List<Table> tables)
+    {
+        num_tables_ = tables.size();
+        num_done_ = 0;
+
+        int i = 1;
+        for (Table t : tables)
+        {
+            queue_.add(t);
+            if (num_tables_ < 100)
+            {
+                steps_.add(String.format("%02d/%02d ", i, num_tables_));
+            }
+            else
+            {
+                steps_.add(String.format("%03d/%03d ", i, num_tables_));
+            }
+            i++;
+        }
+
+        int n = Math.min(num_workers_, num_tables_);
+        if (n <= 0) return;
+
+        Log.verbose("(sync-data) syncing "+num_tables_+" tables using "+n+" workers\n");
+
+        Log.clearSyncErrorWarning();
+        Monitor monitor = new Monitor(this::renderStatus);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < n; w++)
+        {
+            Thread thread = new Thread(this::work);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        monitor.stop();
+        Log.warnIfSyncErrorsFound();
+    }
+
+    /**
+     * Sync tables from the queue until it is empty. A table that fails with an
+     * exception is counted as a sync error and the worker continues with the next table.
+     */
+    void work()
+    {
+        Database from = source_.worker();
+        Database to = sink_.worker();
+
+        try
+        {
+            while (true)
+            {
+                SyncData sync = new SyncData();
+                sync.useMonitor(false);
+
+                String step;
+                Table t;
+                synchronized (this)
+                {
+                    if (queue_.isEmpty()) break;
+                    step = steps_.get(num_tables_-queue_.size());
+                    t = queue_.removeFirst();
+                    running_.add(sync);
+                }
+
+                try
+                {
+                    sync.syncData(from, to, t.name(), step, dryrun_);
+                }
+                catch (RuntimeException e)
+                {
+                    Log.syncError("(sync-data) sync of "+t.name()+" failed "+e+"\n");
+                    t.incFailures();
+                    // The connections can be left in the middle of a read or a transaction.
+                    close(from, to);
+                    from = source_.worker();
+                    to = sink_.worker();
+                }
+                finally
+                {
+                    synchronized (this)
+                    {
+                        running_.remove(sync);
+                        num_done_++;
+                    }
+                }
+                if (sync.running()) Log.statusFinal(sync.renderStatus());
+            }
+        }
+        finally
+        {
+            close(from, to);
+        }
+    }
+
+    static void close(Database... dbs)
+    {
+        for (Database d : dbs)
+        {
+            try
+            {
+                d.db().close();
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    synchronized String renderStatus()
+    {
+        // sync 012/400 | alfa 50% | beta 3% | gamma 99%
+        if (running_.size() == 1 && running_.get(0).running())
+        {
+            // A single table in progress, show the full status line for it.
+            return running_.get(0).renderStatus();
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append("sync "+num_done_+"/"+num_tables_);
+        for (SyncData s : running_)
+        {
+            if (!s.running()) continue;
+            // Refresh the status html for this table as well.
+            s.renderStatus();
+            out.append(" | "+s.renderProgress());
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The rows of a result set as tab separated text, the default format of both
+ * LOAD DATA INFILE and COPY FROM STDIN. A row is rendered when the database
+ * has read the previous one, so the rows stream from the source to the sink
+ * without being kept in memory. NULL is written as \N, and backslash, tab,
+ * newline and carriage return are escaped with a backslash.
+ */
+public class TabSeparatedRows extends InputStream
+{
+    private ResultSet rs_;
+    private int[] types_;
+    private byte[] buf_ = new byte[0];
+    private int pos_;
+    private long rows_;
+
+    public TabSeparatedRows(ResultSet rs, int[] types)
+    {
+        rs_ = rs;
+        types_ = types;
+    }
+
+    /**
+     * The number of rows read so far.
+     */
+    public long rows()
+    {
+        return rows_;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (pos_ >= buf_.length && !fill()) return -1;
+        return buf_[pos_++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) return 0;
+        if (pos_ >= buf_.length && !fill()) return -1;
+        int n = Math.min(len, buf_.length-pos_);
+        System.arraycopy(buf_, pos_, b, off, n);
+        pos_ += n;
+        return n;
+    }
+
+    boolean fill() throws IOException
+    {
+        try
+        {
+            if (!rs_.next()) return false;
+
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < types_.length; i++)
+            {
+                if (i > 0) line.append('\t');
+                String v = Table.value(rs_.getString(i+1), types_[i]);
+                if (v == null)
+                {
+                    line.append("\\N");
+                    continue;
+                }
+                if (types_[i] == java.sql.Types.TIMESTAMP || types_[i] == java.sql.Types.TIME)
+                {
+                    v = v.replace('T', ' ');
+                }
+                escape(line, v);
+            }
+            line.append('\n');
+
+            buf_ = line.toString().getBytes(StandardCharsets.UTF_8);
+            pos_ = 0;
+            rows_++;
+            return true;
+        }
+        catch (SQLException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    static void escape(StringBuilder out, String v)
+    {
+        for (int i = 0; i < v.length(); i++)
+        {
+            char c = v.charAt(i);
+            switch (c)
+            {
+            case '\\': out.append("\\\\"); break;
+            case '\t': out.append("\\t"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            default: out.append(c);
+            }
+        }
+    }
+}
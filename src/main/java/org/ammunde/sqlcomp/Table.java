@@ -45,6 +45,16 @@ public class Table
     private long approx_disk_size_kb_;
     private boolean has_integer_primary_key_;
     private Status status_;
+    // The parameterized write statements into this table, the update statements per set of changed columns.
+    private String insert_sql_;
+    private String delete_sql_;
+    private Map<String,String> update_sql_ = new HashMap<>();
+    private Map<Integer,String> upsert_sql_ = new HashMap<>();
+    private Map<String,String> grouped_update_sql_ = new HashMap<>();
+    // The column plans against the sink tables, when this is the source.
+    private Map<Table,ColumnPlan> plans_ = new HashMap<>();
+    // The most keys read with a single in list.
+    static final int MAX_IN_KEYS = 1000;
 
     public Table(Database database, String name)
     {
@@ -62,6 +72,27 @@ public class Table
         Log.prefixNewline(false);
     }
 
+    /**
+     * Copy the table definition from another table, without querying
+     * the database again. The copy belongs to the given database.
+     */
+    public Table(Database database, Table other)
+    {
+        database_ = database;
+        name_ = other.name_;
+        name_lowercase_ = other.name_lowercase_;
+        columns_ = other.columns_;
+        column_names_ = other.column_names_;
+        index_to_column_ = other.index_to_column_;
+        name_to_column_ = other.name_to_column_;
+        columns_for_select_ = other.columns_for_select_;
+        primary_key_ = other.primary_key_;
+        approx_num_rows_ = other.approx_num_rows_;
+        approx_disk_size_kb_ = other.approx_disk_size_kb_;
+        has_integer_primary_key_ = other.has_integer_primary_key_;
+        status_ = other.status_;
+    }
+
     public void track(Status s)
     {
         status_ = s;
@@ -447,17 +478,20 @@ public class Table
         return s;
     }
 
-    static String wrap(String s, int t)
+    /**
+     * Normalize a value read from the database, so that the
+     * values from the source and the sink can be compared.
+     */
+    static String value(String s, int t)
     {
         if (isText(t))
         {
-            if (s == null) return null;
-            return "'"+Util.doubleApostrophes(s)+"'";
+            return s;
         }
         if (isDateTime(t))
         {
             if (s == null) return null;
-            return "CAST('"+fixDateTime(s)+"' AS DATETIME)";
+            return fixDateTime(s);
         }
         if (isReal(t))
         {
@@ -466,7 +500,6 @@ public class Table
         }
         if (isInt(t))
         {
-            if (s == null) return null;
             return s;
         }
 
@@ -476,37 +509,196 @@ public class Table
         return null;
     }
 
-    List<PK> chunkPrimaryKeys(int size)
+    /**
+     * Render a normalized value as an sql literal, used when printing the changes.
+     * The writes to the sink bind the values as parameters instead.
+     */
+    static String literal(String v, int t)
     {
-        int[] pk_from = new int[1];
-        pk_from[0] = -1;
-        int[] pk_to = new int[1];
-        List<Integer> keys = new ArrayList<>();
+        if (v == null) return "NULL";
+        if (isText(t)) return "'"+Util.doubleApostrophes(v)+"'";
+        if (isDateTime(t)) return "CAST('"+v+"' AS DATETIME)";
+        return v;
+    }
 
-        List<PK> pks = new LinkedList<>();
-        ResultCallback cb = (rs, rownum) -> {
-            if (rownum > 0 && rownum % size == 0)
+    /**
+     * The plan for reading and comparing the columns of this source table against the sink.
+     */
+    synchronized ColumnPlan plan(Table sink)
+    {
+        return plans_.computeIfAbsent(sink, s -> new ColumnPlan(this, s));
+    }
+
+    int[] columnTypes()
+    {
+        int[] types = new int[columns_.size()];
+        for (int i = 0; i < types.length; i++) types[i] = index_to_column_[i].type();
+        return types;
+    }
+
+    synchronized String insertSql(Table source)
+    {
+        if (insert_sql_ == null)
+        {
+            StringBuilder q = new StringBuilder();
+            for (int i = 0; i < source.columns().size(); i++) q.append(i == 0 ? "?" : ",?");
+            insert_sql_ = "INSERT INTO "+schemaPrefix()+quotedName()+" ("+source.columnsForSelect()+") VALUES ("+q+")";
+        }
+        return insert_sql_;
+    }
+
+    /**
+     * The update statement for a set of changed columns, given as indexes
+     * into the source columns. The primary key is the last parameter.
+     */
+    synchronized String updateSql(Table source, List<Integer> changed)
+    {
+        String key = changed.toString();
+        String sql = update_sql_.get(key);
+        if (sql == null)
+        {
+            StringBuilder set = new StringBuilder();
+            for (int i : changed)
             {
-                pks.add(new PK(pk_from[0], pk_to[0], keys.stream().mapToInt(Integer::intValue).toArray()));
-                pk_from[0] = -1;
-                keys.clear();
+                if (set.length() > 0) set.append(",");
+                set.append("\""+source.columnNames().get(i)+"\"=?");
             }
-            pk_to[0] = rs.getInt(1);
-            keys.add(pk_to[0]);
-            if (pk_from[0] == -1) pk_from[0] = pk_to[0];
-        };
+            sql = "UPDATE "+schemaPrefix()+quotedName()+" SET "+set+" WHERE "+source.quotedPrimaryKey()+"=?";
+            update_sql_.put(key, sql);
+        }
+        return sql;
+    }
 
-        int n = database().db().performQuery(cb,
-                                  "select "+primaryKey()+
-                                  " from "+database().db().schemaPrefix()+
-                                  database().db().quoteTableName(name_)+
-                                  " order by "+primaryKey()+" asc");
+    /**
+     * The update of rows rows that all changed the same columns, given as indexes into the source columns.
+     * The parameters are the key and value pairs of each column followed by the keys.
+     */
+    synchronized String groupedUpdateSql(Table source, List<Integer> changed, int rows)
+    {
+        String key = changed.toString()+rows;
+        String sql = grouped_update_sql_.get(key);
+        if (sql == null)
+        {
+            StringBuilder set = new StringBuilder();
+            for (int i : changed)
+            {
+                String name = source.columnNames().get(i);
+                Column c = column(name);
+                String then = database().typedParam(c != null ? c : source.column(i));
+                StringBuilder when = new StringBuilder();
+                for (int r = 0; r < rows; r++) when.append(" WHEN ? THEN "+then);
+                if (set.length() > 0) set.append(",");
+                set.append("\""+name+"\"=CASE "+source.quotedPrimaryKey()+when+" END");
+            }
+            StringBuilder in = new StringBuilder();
+            for (int r = 0; r < rows; r++) in.append(r == 0 ? "?" : ",?");
+            sql = "UPDATE "+schemaPrefix()+quotedName()+" SET "+set+" WHERE "+source.quotedPrimaryKey()+" IN ("+in+")";
+            grouped_update_sql_.put(key, sql);
+        }
+        return sql;
+    }
 
-        if (pk_from[0] != -1) {
-            pks.add(new PK(pk_from[0], pk_to[0], keys.stream().mapToInt(Integer::intValue).toArray()));
+    /**
+     * The native upsert of rows rows, or null if the database has none.
+     */
+    synchronized String upsertSql(Table source, int rows)
+    {
+        if (!upsert_sql_.containsKey(rows)) upsert_sql_.put(rows, database().upsert(this, source, rows));
+        return upsert_sql_.get(rows);
+    }
+
+    synchronized String deleteSql(Table source)
+    {
+        if (delete_sql_ == null)
+        {
+            delete_sql_ = "DELETE FROM "+schemaPrefix()+quotedName()+" WHERE "+source.quotedPrimaryKey()+"=?";
         }
+        return delete_sql_;
+    }
 
-        return pks;
+    /**
+     * A copy of the table definition with another name, e.g. a shadow table that replaces this table.
+     */
+    Table withName(String name)
+    {
+        Table t = new Table(database_, this);
+        t.name_ = name;
+        t.name_lowercase_ = name.toLowerCase();
+        t.status_ = null;
+        return t;
+    }
+
+    /**
+     * True if the table has no rows. A failed query is not taken as empty.
+     */
+    boolean isEmpty()
+    {
+        int n = database().db().performQueryChecked((rs, rownum) -> {},
+                          database().limit("select "+quotedPrimaryKey()+
+                                           " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_), 1));
+        return n == 0;
+    }
+
+    /**
+     * Stream all rows of the table sorted on the primary key to the handler,
+     * with the columns of the source in order. Returns false if it failed.
+     */
+    boolean streamRows(Table source, ResultSetHandler h)
+    {
+        return streamRows(source, Long.MIN_VALUE, h);
+    }
+
+    /**
+     * Stream the rows with primary keys above the given key.
+     */
+    boolean streamRows(Table source, long above, ResultSetHandler h)
+    {
+        return database().db().performQueryStream(h,
+                          "select "+source.columnsForSelect()+
+                          " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
+                          " where "+quotedPrimaryKey()+">?"+
+                          " order by "+quotedPrimaryKey(), above);
+    }
+
+    /**
+     * Return the n highest primary keys from lo to hi, inclusive, sorted ascending.
+     */
+    int[] highestPrimaryKeys(long lo, long hi, int n)
+    {
+        int[] keys = new int[n];
+        int[] count = new int[1];
+
+        ResultCallback cb = (rs, rownum) -> {
+            keys[count[0]++] = rs.getInt(1);
+        };
+
+        database().db().performQuery(cb,
+                          database().limit("select "+quotedPrimaryKey()+
+                                           " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
+                                           " where "+quotedPrimaryKey()+">=? AND "+quotedPrimaryKey()+"<=?"+
+                                           " order by "+quotedPrimaryKey()+" desc", n), lo, hi);
+
+        int[] sorted = new int[count[0]];
+        for (int i = 0; i < count[0]; i++) sorted[i] = keys[count[0]-1-i];
+        return sorted;
+    }
+
+    /**
+     * Count the rows with primary keys from lo to hi, inclusive.
+     */
+    long countRows(long lo, long hi)
+    {
+        long[] count = new long[1];
+
+        ResultCallback cb = (rs, rownum) -> {
+            count[0] = rs.getLong(1);
+        };
+
+        database().db().performQuery(cb,
+                          "select count(*) from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
+                          " where "+quotedPrimaryKey()+">=? AND "+quotedPrimaryKey()+"<=?", lo, hi);
+
+        return count[0];
     }
 
     List<PK> chunkPrimaryKeysInto(List<PK> ipks)
@@ -537,7 +729,7 @@ public class Table
             if (pk_from[0] == -1) pk_from[0] = pk_to[0];
         };
 
-        int n = database().db().performQuery(cb,
+        int n = database().db().performQueryStreaming(cb,
                                   "select "+primaryKey()+
                                   " from "+database().db().schemaPrefix()+
                                   database().db().quoteTableName(name_)+
@@ -550,31 +742,202 @@ public class Table
         return pks;
     }
 
-    ArrayList<Row> rows(PK pk, Table source)
+    /**
+     * Read the rows of the chunk into the buffer, which is cleared first.
+     * Returns null if the read failed or timed out.
+     */
+    ChunkBuffer rows(PK pk, Table source, ChunkBuffer into)
     {
-        ArrayList<Row> rows = new ArrayList<>();
+        return rowsWhere(quotedPrimaryKey()+">=? AND "+quotedPrimaryKey()+"<=?", source, into, pk.from(), pk.to());
+    }
 
-        int num_cols = source.columns().size();
+    /**
+     * Read the rows with the given ascending primary keys into the buffer, sorted on the primary key.
+     * The keys are read in batches of at most MAX_IN_KEYS, since SQL Server allows at most 2100
+     * parameters in a statement. A batch is padded by repeating its last key up to a power of two,
+     * so that only a few different statements are prepared and cached.
+     * Returns null if the read failed or timed out.
+     */
+    ChunkBuffer rowsWithKeys(int[] keys, Table source, ChunkBuffer into)
+    {
+        into.clear();
 
-        ResultCallback cb = (rs, rownum) -> {
-            LinkedList<String> cols = new LinkedList<>();
-            for (int i = 2; i <= num_cols+1; i++)
+        for (int from = 0; from < keys.length; from += MAX_IN_KEYS)
+        {
+            int n = Math.min(MAX_IN_KEYS, keys.length-from);
+            int size = inListSize(n);
+            StringBuilder in = new StringBuilder();
+            Object[] args = new Object[size];
+            for (int i = 0; i < size; i++)
             {
-                Column c = source.column(i-2);
-                cols.add(wrap(rs.getString(i), c.type()));
+                in.append(i == 0 ? "?" : ",?");
+                args[i] = keys[from+Math.min(i, n-1)];
             }
-            rows.add(new Row(rs.getInt(1), cols));
-        };
+            if (readWhere(quotedPrimaryKey()+" in ("+in+") order by "+quotedPrimaryKey(), source, into, args) == null) return null;
+        }
+        return into;
+    }
+
+    /**
+     * The number of parameters in the in list for n keys, the next power of two capped at MAX_IN_KEYS.
+     */
+    static int inListSize(int n)
+    {
+        int size = 1;
+        while (size < n) size *= 2;
+        return Math.min(size, MAX_IN_KEYS);
+    }
+
+    /**
+     * Read the rows matching where, or null if the read failed or timed out.
+     * A partial result must never be diffed, that could delete rows in the sink.
+     */
+    ChunkBuffer rowsWhere(String where, Table source, ChunkBuffer into, Object... args)
+    {
+        // A retry after a timeout must not keep the rows of the failed read.
+        into.clear();
+        return readWhere(where, source, into, args);
+    }
+
+    /**
+     * Add the rows matching where to the buffer, or return null if the read failed or timed out.
+     */
+    ChunkBuffer readWhere(String where, Table source, ChunkBuffer into, Object... args)
+    {
+        ResultCallback cb = (rs, rownum) -> into.add(rs);
 
         // Yes, the primary key will be duplicated in the select,
         // because the primary key is also inside the columnsForSelect.
         // But we want the primary key to be the first content column.
-        database().db().performQuery(cb,
+        int n = database().db().performQueryTimeout(Settings.chunkTimeout(), cb,
                           "select "+quotedPrimaryKey()+","+source.columnsForSelect()+
                           " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
-                          " where "+quotedPrimaryKey()+">="+pk.from()+" AND "+quotedPrimaryKey()+"<="+pk.to());
+                          " where "+where, args);
+
+        if (n < 0) return null;
+        return into;
+    }
+
+    /**
+     * Read the primary key and the row hash of each row in the chunk, sorted on the primary key.
+     * Only the key and the hash are sent over the network, not the column values.
+     * Returns null if the read failed or timed out.
+     */
+    ArrayList<RowHash> rowHashes(PK pk, Table source)
+    {
+        ArrayList<RowHash> hashes = new ArrayList<>();
+
+        ResultCallback cb = (rs, rownum) -> {
+            hashes.add(new RowHash(rs.getInt(1), rs.getLong(2)));
+        };
+
+        int n = database().db().performQueryTimeout(Settings.chunkTimeout(), cb,
+                          "select "+quotedPrimaryKey()+","+rowHash(source)+
+                          " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
+                          " where "+quotedPrimaryKey()+">=? AND "+quotedPrimaryKey()+"<=?"+
+                          " order by "+quotedPrimaryKey(), pk.from(), pk.to());
+
+        if (n < 0) return null;
+        return hashes;
+    }
+
+    /**
+     * Sql expression for a 32 bit unsigned hash of all the columns of a row.
+     * The hash is the first 32 bits of the md5 of the canonical text of the columns.
+     */
+    String rowHash(Table source)
+    {
+        StringBuilder concat = new StringBuilder();
+        concat.append("CONCAT(");
+        boolean first = true;
+        for (Column c : source.columns())
+        {
+            if (!first) concat.append(",");
+            first = false;
+            // Always end with the separator, SQL Server requires at least two arguments to CONCAT.
+            concat.append(database().canonicalText(c)+","+database().sqlChar(31));
+        }
+        concat.append(")");
+
+        return database().hash32(concat.toString());
+    }
+
+    /**
+     * Calculate the number of rows and the sum of the row hashes for the chunk
+     * inside the database. Returns null if the checksum could not be calculated.
+     */
+    ChunkSum chunkChecksum(PK pk, Table source)
+    {
+        ChunkSum[] sum = new ChunkSum[1];
+
+        ResultCallback cb = (rs, rownum) -> {
+            sum[0] = new ChunkSum(rs.getLong(1), rs.getLong(2));
+        };
+
+        database().db().performQuery(cb,
+                          "select count(*),sum("+rowHash(source)+")"+
+                          " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
+                          " where "+quotedPrimaryKey()+">=? AND "+quotedPrimaryKey()+"<=?", pk.from(), pk.to());
 
+        return sum[0];
+    }
+
+    /**
+     * Sql expression that calculates which of the fanout buckets a key belongs to,
+     * when the range from lo to hi is split into fanout equally wide sub ranges.
+     * The lowest key and the width of the range are bound as the two parameters,
+     * so that all ranges share the same statement.
+     */
+    String bucket(int fanout)
+    {
+        return database().intDiv("("+database().castBigint(quotedPrimaryKey())+"-?)*"+fanout, "?");
+    }
+
+    /**
+     * Split the key range lo to hi into fanout sub ranges and calculate the count and
+     * checksum of each sub range with a single query. Empty sub ranges are null.
+     * Returns null if the checksums could not be calculated.
+     */
+    ChunkSum[] rangeChecksums(long lo, long hi, int fanout, Table source)
+    {
+        ChunkSum[] sums = new ChunkSum[fanout];
+
+        ResultCallback cb = (rs, rownum) -> {
+            sums[rs.getInt(1)] = new ChunkSum(rs.getLong(2), rs.getLong(3));
+        };
+
+        int n = database().db().performQueryChecked(cb,
+                          "select b,count(*),sum(h) from (select "+bucket(fanout)+" as b,"+rowHash(source)+" as h"+
+                          " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_)+
+                          " where "+quotedPrimaryKey()+">=? AND "+quotedPrimaryKey()+"<=?) x group by b",
+                          lo, hi-lo+1, lo, hi);
+
+        if (n < 0) return null;
+        return sums;
+    }
+
+    /**
+     * Return the lowest and highest primary key, or null if the table is empty.
+     */
+    long[] primaryKeyBounds()
+    {
+        long[] bounds = new long[2];
+        boolean[] found = new boolean[1];
+
+        ResultCallback cb = (rs, rownum) -> {
+            if (rs.getString(1) != null)
+            {
+                bounds[0] = rs.getLong(1);
+                bounds[1] = rs.getLong(2);
+                found[0] = true;
+            }
+        };
+
+        database().db().performQuery(cb,
+                          "select min("+quotedPrimaryKey()+"),max("+quotedPrimaryKey()+")"+
+                          " from "+database().db().schemaPrefix()+database().db().quoteTableName(name_));
 
-        return rows;
+        if (!found[0]) return null;
+        return bounds;
     }
 }
@@ -0,0 +1,140 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.ammunde.sqlcomp;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The INSERT, UPDATE and DELETE statements generated for a single chunk.
+ * Each statement is a parameterized sql with the rows of values to bind,
+ * rows with the same sql are executed as a single jdbc batch.
+ * The same writes are also kept as single row statements, so that a
+ * failed batch can be split until the failing rows are found.
+ */
+public class WriteBatch
+{
+    record Statement(String sql, int[] types, List<String[]> rows) {}
+    // A statement that writes the sink row with the primary key pk.
+    record Single(String sql, int[] types, String[] values, int pk) {}
+
+    private Table table_;
+    private Map<String,Statement> statements_ = new LinkedHashMap<>();
+    private List<Single> singles_ = new ArrayList<>();
+
+    public WriteBatch(Table table)
+    {
+        table_ = table;
+    }
+
+    public Table table()
+    {
+        return table_;
+    }
+
+    /**
+     * Add a row of values to bind to the parameters of the sql, that writes the sink row pk.
+     * The types are the java.sql.Types of the parameters.
+     */
+    public void add(String sql, int[] types, String[] values, int pk)
+    {
+        addStatement(sql, types, values);
+        singles_.add(new Single(sql, types, values, pk));
+    }
+
+    /**
+     * Add a statement that writes several sink rows, singles are the same writes one row at a time.
+     */
+    public void add(String sql, int[] types, String[] values, List<Single> singles)
+    {
+        addStatement(sql, types, values);
+        singles_.addAll(singles);
+    }
+
+    void addStatement(String sql, int[] types, String[] values)
+    {
+        Statement s = statements_.get(sql);
+        if (s == null)
+        {
+            s = new Statement(sql, types, new ArrayList<>());
+            statements_.put(sql, s);
+        }
+        s.rows().add(values);
+    }
+
+    public boolean isEmpty()
+    {
+        return statements_.isEmpty();
+    }
+
+    /**
+     * The primary keys of the sink rows written by this batch.
+     */
+    public List<Integer> keys()
+    {
+        List<Integer> keys = new ArrayList<>();
+        for (Single s : singles_) keys.add(s.pk());
+        return keys;
+    }
+
+    /**
+     * Split the writes into two batches with half of the rows each,
+     * returns null if the batch writes a single row.
+     */
+    public List<WriteBatch> split()
+    {
+        if (singles_.size() < 2) return null;
+
+        int mid = singles_.size()/2;
+        return List.of(of(table_, singles_.subList(0, mid)), of(table_, singles_.subList(mid, singles_.size())));
+    }
+
+    static WriteBatch of(Table table, List<Single> singles)
+    {
+        WriteBatch batch = new WriteBatch(table);
+        for (Single s : singles) batch.add(s.sql(), s.types(), s.values(), s.pk());
+        return batch;
+    }
+
+    /**
+     * Execute the statements on the given sink db. Failures are logged
+     * as sync errors and counted on the table, the remaining statements are still executed.
+     */
+    public void apply(DB db)
+    {
+        for (Statement s : statements_.values())
+        {
+            db.performSyncBatch(table_, s.sql(), s.types(), s.rows());
+        }
+    }
+
+    /**
+     * Execute the statements on the given sink db, stop at the first failure and throw it.
+     * Used inside a transaction, that is rolled back when a statement fails.
+     */
+    public void execute(DB db) throws SQLException
+    {
+        for (Statement s : statements_.values())
+        {
+            db.executeBatch(s.sql(), s.types(), s.rows());
+        }
+    }
+}
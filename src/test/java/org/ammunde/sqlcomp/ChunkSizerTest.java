@@ -0,0 +1,74 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class ChunkSizerTest
+{
+    @Test
+    void fastChunksDoubleTheSize()
+    {
+        ChunkSizer s = new ChunkSizer(100, 10, 1000, 500, 1000000);
+        s.observe(100, 100, 0);
+        assertEquals(200, s.size());
+        s.observe(200, 100, 0);
+        assertEquals(400, s.size());
+    }
+
+    @Test
+    void slowChunksShrinkTowardsTheTarget()
+    {
+        ChunkSizer s = new ChunkSizer(400, 10, 1000, 500, 1000000);
+        s.observe(400, 1000, 0);
+        assertEquals(200, s.size());
+        // Never more than half at once.
+        s.observe(200, 100000, 0);
+        assertEquals(100, s.size());
+    }
+
+    @Test
+    void sizeStaysWithinTheBounds()
+    {
+        ChunkSizer s = new ChunkSizer(800, 10, 1000, 500, 1000000);
+        s.observe(800, 1, 0);
+        assertEquals(1000, s.size());
+        for (int i = 0; i < 20; i++) s.failed();
+        assertEquals(10, s.size());
+    }
+
+    @Test
+    void wideRowsLimitTheSize()
+    {
+        // 1000 bytes per row and at most 100000 bytes per chunk.
+        ChunkSizer s = new ChunkSizer(100, 10, 10000, 500, 100000);
+        s.observe(100, 10, 100000);
+        assertEquals(100, s.size());
+    }
+
+    @Test
+    void shortLastChunkIsIgnored()
+    {
+        ChunkSizer s = new ChunkSizer(100, 10, 1000, 500, 1000000);
+        s.observe(10, 1, 0);
+        assertEquals(100, s.size());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Types;
+
+import org.junit.jupiter.api.Test;
+
+public class ColumnPlanTest
+{
+    static final ColumnPlan.Codec LONG = ColumnPlan.Codec.LONG;
+    static final ColumnPlan.Codec STRING = ColumnPlan.Codec.STRING;
+    static final ColumnPlan.Codec DATETIME = ColumnPlan.Codec.DATETIME;
+    static final ColumnPlan.Codec REAL = ColumnPlan.Codec.REAL;
+
+    @Test
+    void integersAreLongsOnlyIfTheSinkIsAnInteger()
+    {
+        assertEquals(LONG, ColumnPlan.codec(Types.INTEGER, Types.BIGINT));
+        assertEquals(STRING, ColumnPlan.codec(Types.INTEGER, Types.VARCHAR));
+        assertEquals(STRING, ColumnPlan.codec(Types.BOOLEAN, Types.BOOLEAN));
+        assertEquals(STRING, ColumnPlan.codec(Types.TINYINT, Types.BOOLEAN));
+    }
+
+    @Test
+    void dateIsTextButTimestampIsDateTime()
+    {
+        assertEquals(STRING, ColumnPlan.codec(Types.DATE, Types.DATE));
+        assertEquals(STRING, ColumnPlan.codec(Types.VARCHAR, Types.INTEGER));
+        assertEquals(DATETIME, ColumnPlan.codec(Types.TIMESTAMP, Types.TIMESTAMP));
+        assertEquals(REAL, ColumnPlan.codec(Types.DECIMAL, Types.DOUBLE));
+    }
+
+    @Test
+    void valuesAreNormalizedWhenRead() throws Exception
+    {
+        ColumnPlan plan = new ColumnPlan(new int[] { Types.TIMESTAMP, Types.DOUBLE, Types.VARCHAR, Types.INTEGER },
+                                         new ColumnPlan.Codec[] { DATETIME, REAL, STRING, LONG },
+                                         new Equivalence[4]);
+        ResultSet rs = FakeResultSet.of(new String[] { "2024-05-21 06:20:21", "17.0", "x.0", null });
+        rs.next();
+        assertEquals("2024-05-21T06:20:21", plan.read(rs, 1, 0));
+        assertEquals("17", plan.read(rs, 2, 1));
+        assertEquals("x.0", plan.read(rs, 3, 2));
+        assertNull(plan.read(rs, 4, 3));
+        assertTrue(plan.isLong(3));
+        assertFalse(plan.isLong(2));
+    }
+
+    @Test
+    void onlyColumnsWithAnEquivalenceForgiveDifferences()
+    {
+        Equivalence ignore_case = (source, sink) -> source.equalsIgnoreCase(sink);
+        ColumnPlan plan = new ColumnPlan(new int[] { Types.VARCHAR, Types.VARCHAR },
+                                         new ColumnPlan.Codec[] { STRING, STRING },
+                                         new Equivalence[] { null, ignore_case });
+        assertTrue(plan.same(0, "a", "a"));
+        assertFalse(plan.same(0, "a", "A"));
+        assertTrue(plan.same(1, "a", "A"));
+        assertTrue(plan.same(1, null, null));
+        assertFalse(plan.same(1, "a", null));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Types;
+
+import org.junit.jupiter.api.Test;
+
+public class EquivalencesTest
+{
+    static Column column(int type, String type_name)
+    {
+        return new Column(null, "c", type, type_name, false, null, 0);
+    }
+
+    @Test
+    void codePageTextAcceptsBaseLettersAndQuestionMarks()
+    {
+        Equivalence e = Equivalences.codePageText(column(Types.NVARCHAR, "nvarchar"), column(Types.VARCHAR, "varchar"));
+        assertTrue(e.same("Dvořák", "Dvorák"));
+        assertTrue(e.same("a中b", "a?b"));
+        assertTrue(e.same("x\u200By", "xy"));
+        assertTrue(e.same("Dvor\u030Cák", "Dvorák"));
+        assertFalse(e.same("Dvořák", "Dvorak"));
+        assertFalse(e.same("abc", "abd"));
+    }
+
+    @Test
+    void codePageTextOnlyAppliesToNonUnicodeSinks()
+    {
+        assertNull(Equivalences.codePageText(column(Types.VARCHAR, "varchar"), column(Types.NVARCHAR, "nvarchar")));
+    }
+
+    @Test
+    void numbersAreComparedByValue()
+    {
+        Equivalence e = Equivalences.numeric(column(Types.DECIMAL, "decimal"), column(Types.DOUBLE, "double"));
+        assertTrue(e.same("1.50", "1.5"));
+        assertTrue(e.same("1E+1", "10"));
+        assertFalse(e.same("1.5", "1.51"));
+        assertFalse(e.same("NaN", "nan"));
+    }
+
+    @Test
+    void singlePrecisionIsComparedAsFloat()
+    {
+        Equivalence e = Equivalences.numeric(column(Types.REAL, "real"), column(Types.DOUBLE, "double"));
+        assertTrue(e.same("0.1", "0.10000000149011612"));
+        Equivalence d = Equivalences.numeric(column(Types.DOUBLE, "double"), column(Types.DOUBLE, "double"));
+        assertFalse(d.same("0.1", "0.10000000149011612"));
+    }
+
+    @Test
+    void trailingZerosOfTheFractionAreTrimmed()
+    {
+        assertEquals("2024-05-21T06:20:21", Equivalences.trimFraction("2024-05-21T06:20:21.0"));
+        assertEquals("2024-05-21T06:20:21.123", Equivalences.trimFraction("2024-05-21T06:20:21.123000"));
+        assertEquals("06:20:21.5", Equivalences.trimFraction("06:20:21.5"));
+        assertEquals("2024-05-21", Equivalences.trimFraction("2024-05-21"));
+        assertEquals("1.50", Equivalences.trimFraction("1.50"));
+    }
+
+    @Test
+    void noEquivalenceWithoutASinkColumn()
+    {
+        assertNull(Equivalences.lookup(DBType.POSTGRES, DBType.SQLSERVER, ColumnPlan.Codec.REAL,
+                                       column(Types.DOUBLE, "double"), null));
+    }
+}
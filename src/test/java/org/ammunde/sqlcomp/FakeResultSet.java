@@ -0,0 +1,73 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A result set over rows of strings, for the tests that read from a ResultSet.
+ * Only next, getString, getInt, getLong and wasNull are supported, the columns
+ * are numbered from 1 as in jdbc.
+ */
+public class FakeResultSet
+{
+    static ResultSet of(String[]... rows)
+    {
+        int[] row = { -1 };
+        boolean[] was_null = { false };
+        return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, m, args) -> {
+            switch (m.getName())
+            {
+            case "next":
+                row[0]++;
+                return row[0] < rows.length;
+            case "getString":
+            {
+                String v = rows[row[0]][(Integer)args[0]-1];
+                was_null[0] = v == null;
+                return v;
+            }
+            case "getInt":
+            case "getLong":
+            {
+                String v = rows[row[0]][(Integer)args[0]-1];
+                was_null[0] = v == null;
+                long n = 0;
+                try
+                {
+                    if (v != null) n = Long.parseLong(v);
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new SQLException("not a number "+v);
+                }
+                if (m.getName().equals("getInt")) return (int)n;
+                return n;
+            }
+            case "wasNull":
+                return was_null[0];
+            case "close":
+                return null;
+            }
+            throw new UnsupportedOperationException(m.getName());
+        });
+    }
+}
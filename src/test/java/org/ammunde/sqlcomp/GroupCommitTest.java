@@ -0,0 +1,134 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+public class GroupCommitTest
+{
+    // A sink where a batch fails if it writes any of the bad keys, and the first
+    // commits can be made to fail as well.
+    static class StubSink implements GroupCommit.Sink
+    {
+        Set<Integer> bad_;
+        int failing_commits_;
+        List<Integer> open_ = new ArrayList<>();
+        Set<Integer> committed_ = new TreeSet<>();
+        List<Integer> dead_ = new ArrayList<>();
+
+        StubSink(Integer... bad)
+        {
+            bad_ = Set.of(bad);
+        }
+
+        public void apply(WriteBatch batch)
+        {
+            committed_.addAll(batch.keys());
+        }
+
+        public void begin()
+        {
+            open_.clear();
+        }
+
+        public void execute(WriteBatch batch) throws SQLException
+        {
+            for (int pk : batch.keys())
+            {
+                if (bad_.contains(pk)) throw new SQLException("bad row "+pk);
+            }
+            open_.addAll(batch.keys());
+        }
+
+        public void commit() throws SQLException
+        {
+            if (failing_commits_ > 0)
+            {
+                failing_commits_--;
+                throw new SQLException("commit failed");
+            }
+            committed_.addAll(open_);
+            open_.clear();
+        }
+
+        public void rollback()
+        {
+            open_.clear();
+        }
+
+        public void deadLetter(WriteBatch batch, SQLException e)
+        {
+            dead_.addAll(batch.keys());
+        }
+    }
+
+    static Set<Integer> keys(int from, int to, Integer... except)
+    {
+        Set<Integer> keys = new TreeSet<>();
+        for (int pk = from; pk <= to; pk++) keys.add(pk);
+        keys.removeAll(Set.of(except));
+        return keys;
+    }
+
+    static void applyAll(StubSink sink, WriteBatch... batches)
+    {
+        int chunks = Settings.commit_chunks_;
+        int ms = Settings.commit_ms_;
+        Settings.commit_chunks_ = 10;
+        Settings.commit_ms_ = Integer.MAX_VALUE;
+        try
+        {
+            GroupCommit group = new GroupCommit(sink);
+            for (WriteBatch batch : batches) group.apply(batch);
+            group.commit();
+        }
+        finally
+        {
+            Settings.commit_chunks_ = chunks;
+            Settings.commit_ms_ = ms;
+        }
+    }
+
+    @Test
+    void onlyTheFailingRowsAreDeadLetters()
+    {
+        StubSink sink = new StubSink(13, 27, 28);
+        applyAll(sink, WriteBatchTest.rows(1, 10), WriteBatchTest.rows(11, 20), WriteBatchTest.rows(21, 30));
+        assertEquals(List.of(13, 27, 28), sink.dead_);
+        assertEquals(keys(1, 30, 13, 27, 28), sink.committed_);
+    }
+
+    @Test
+    void failedCommitIsRetriedChunkByChunk()
+    {
+        StubSink sink = new StubSink();
+        sink.failing_commits_ = 1;
+        applyAll(sink, WriteBatchTest.rows(1, 10), WriteBatchTest.rows(11, 20));
+        assertEquals(List.of(), sink.dead_);
+        assertEquals(keys(1, 20), sink.committed_);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class KeysetChunkerTest
+{
+    /**
+     * The highest keys of a table with the given sorted keys.
+     */
+    static KeysetChunker.Keys table(int... keys)
+    {
+        return (lo, hi, n) -> {
+            int[] in = Arrays.stream(keys).filter(k -> k >= lo && k <= hi).toArray();
+            return Arrays.copyOfRange(in, Math.max(0, in.length-n), in.length);
+        };
+    }
+
+    static List<PK> chunks(KeysetChunker c)
+    {
+        List<PK> chunks = new ArrayList<>();
+        while (c.hasNext()) chunks.add(c.next());
+        return chunks;
+    }
+
+    @Test
+    void chunksStartWithTheHighestKeys()
+    {
+        ChunkSizer sizer = new ChunkSizer(2, 2, 2, 1000, 1000000);
+        List<PK> chunks = chunks(new KeysetChunker(table(1, 3, 5, 7, 9), sizer, Integer.MIN_VALUE, Integer.MAX_VALUE));
+
+        assertEquals(3, chunks.size());
+        assertArrayEquals(new int[] { 7, 9 }, chunks.get(0).keys());
+        assertArrayEquals(new int[] { 3, 5 }, chunks.get(1).keys());
+        assertArrayEquals(new int[] { 1 }, chunks.get(2).keys());
+        assertEquals(7, chunks.get(0).from());
+        assertEquals(9, chunks.get(0).to());
+    }
+
+    @Test
+    void chunksStayWithinTheRange()
+    {
+        ChunkSizer sizer = new ChunkSizer(10, 10, 10, 1000, 1000000);
+        List<PK> chunks = chunks(new KeysetChunker(table(1, 3, 5, 7, 9), sizer, 3, 7));
+
+        assertEquals(1, chunks.size());
+        assertArrayEquals(new int[] { 3, 5, 7 }, chunks.get(0).keys());
+    }
+
+    @Test
+    void emptyTableHasNoChunks()
+    {
+        ChunkSizer sizer = new ChunkSizer(10, 10, 10, 1000, 1000000);
+        assertFalse(new KeysetChunker(table(), sizer, Integer.MIN_VALUE, Integer.MAX_VALUE).hasNext());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class MerkleDiffTest
+{
+    /**
+     * Check that the bucket of every key, as calculated by the bucket sql,
+     * is the bucket whose key range contains the key.
+     */
+    void assertBuckets(long lo, long hi, int fanout)
+    {
+        long width = hi-lo+1;
+        for (long k = lo; k <= hi; k++)
+        {
+            int b = (int)((k-lo)*fanout/width);
+            long from = MerkleDiff.bucketFrom(lo, hi, fanout, b);
+            long to = MerkleDiff.bucketFrom(lo, hi, fanout, b+1)-1;
+            if (k < from || k > to)
+            {
+                throw new AssertionError("key "+k+" in bucket "+b+" outside "+from+"-"+to);
+            }
+        }
+        assertEquals(lo, MerkleDiff.bucketFrom(lo, hi, fanout, 0));
+        assertEquals(hi+1, MerkleDiff.bucketFrom(lo, hi, fanout, fanout));
+    }
+
+    @Test
+    void bucketsCoverTheRange()
+    {
+        assertBuckets(1, 1000, 16);
+        assertBuckets(7, 100, 3);
+    }
+
+    @Test
+    void bucketsOfRangeSmallerThanFanout()
+    {
+        assertBuckets(10, 14, 16);
+        assertBuckets(5, 5, 16);
+    }
+
+    @Test
+    void bucketsOfNegativeKeys()
+    {
+        assertBuckets(-500, 20, 16);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class PostgresTest
+{
+    @Test
+    void serialColumnsAreCastToTheirIntegerType()
+    {
+        assertEquals("int2", Postgres.castType("smallserial"));
+        assertEquals("int4", Postgres.castType("serial"));
+        assertEquals("int8", Postgres.castType("bigserial"));
+    }
+
+    @Test
+    void otherTypesAreCastToTheReportedType()
+    {
+        assertEquals("timestamp", Postgres.castType("timestamp"));
+        assertEquals("numeric", Postgres.castType("numeric"));
+        assertEquals("uuid", Postgres.castType("uuid"));
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.ResultSet;
+import org.junit.jupiter.api.Test;
+
+public class SQLServerTest
+{
+    @Test
+    void bulkCopyCountsTheRowsRead() throws Exception
+    {
+        long[] n = new long[1];
+        ResultSet rs = SQLServer.counting(FakeResultSet.of(new String[] { "1" }, new String[] { "2" }, new String[] { "3" }), n);
+        while (rs.next()) rs.getString(1);
+        assertEquals(3, n[0]);
+        // Reading past the end does not count.
+        rs.next();
+        assertEquals(3, n[0]);
+    }
+}
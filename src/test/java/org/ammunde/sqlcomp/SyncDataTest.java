@@ -0,0 +1,40 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class SyncDataTest
+{
+    @Test
+    void checksumsAreKeptWhileSomeChunkMatched()
+    {
+        assertFalse(SyncData.checksumsNeverMatch(1, 100));
+    }
+
+    @Test
+    void checksumsAreDisabledAfterTwentyFalseMismatches()
+    {
+        assertFalse(SyncData.checksumsNeverMatch(0, 19));
+        assertTrue(SyncData.checksumsNeverMatch(0, 20));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class SyncHistoryTest
+{
+    static Path history(String content) throws Exception
+    {
+        Path file = Files.createTempFile("sqlcomp_history", ".txt");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, content);
+        Settings.history_ = file.toString();
+        SyncHistory.tables_ = null;
+        return file;
+    }
+
+    @Test
+    void historyFileIsParsed() throws Exception
+    {
+        history("eventlog 3 2\nbroken line\n\naudit 1 0\n");
+        assertTrue(SyncHistory.appendOnly("EventLog"));
+        assertEquals(2, SyncHistory.tailRuns("eventlog"));
+        assertFalse(SyncHistory.appendOnly("audit"));
+        assertFalse(SyncHistory.appendOnly("missing"));
+    }
+
+    @Test
+    void onlySyncsWithInsertsCount() throws Exception
+    {
+        history("");
+        for (int i = 0; i < 5; i++) SyncHistory.fullSync("quiet", 0, 0);
+        assertFalse(SyncHistory.appendOnly("quiet"));
+
+        for (int i = 0; i < 3; i++) SyncHistory.fullSync("log", 10, 0);
+        assertTrue(SyncHistory.appendOnly("log"));
+
+        SyncHistory.fullSync("log", 10, 1);
+        assertFalse(SyncHistory.appendOnly("log"));
+    }
+
+    @Test
+    void differingOlderRowsResetTheStreak() throws Exception
+    {
+        Path file = history("log 3 4\n");
+        SyncHistory.notAppendOnly("log");
+        SyncHistory.tables_ = null;
+        assertFalse(SyncHistory.appendOnly("log"));
+        assertEquals(0, SyncHistory.tailRuns("log"));
+        assertEquals("log 0 0", Files.readString(file).trim());
+    }
+
+    @Test
+    void flappingRowsAreSkippedEveryOtherSync() throws Exception
+    {
+        Path file = history("");
+        Settings.flap_limit_ = 2;
+        try
+        {
+            StringBuilder applied = new StringBuilder();
+            for (int sync = 0; sync < 5; sync++)
+            {
+                applied.append(SyncHistory.flapRuns("t", 7) < Settings.flapLimit() ? "u" : "s");
+                if (applied.charAt(sync) == 'u') SyncHistory.updated("t", 7);
+                else SyncHistory.skipped("t", 7);
+                SyncHistory.fullSync("t", 0, 1);
+            }
+            assertEquals("uusus", applied.toString());
+            assertEquals("t 7 1", Files.readString(Path.of(file+".flapping")).trim());
+
+            // A sync where the row is equal forgets it.
+            SyncHistory.fullSync("t", 0, 0);
+            assertEquals(0, SyncHistory.flapRuns("t", 7));
+        }
+        finally
+        {
+            Settings.flap_limit_ = 0;
+        }
+    }
+}
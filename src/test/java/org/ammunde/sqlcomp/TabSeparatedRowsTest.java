@@ -0,0 +1,76 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import org.junit.jupiter.api.Test;
+
+public class TabSeparatedRowsTest
+{
+    static String read(InputStream in) throws Exception
+    {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void rowsAreTabSeparatedLines() throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(FakeResultSet.of(new String[] { "1", "alfa" },
+                                                                      new String[] { "2", "beta" }),
+                                                     new int[] { Types.INTEGER, Types.VARCHAR });
+        assertEquals("1\talfa\n2\tbeta\n", read(rows));
+        assertEquals(2, rows.rows());
+    }
+
+    @Test
+    void nullIsBackslashN() throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(FakeResultSet.of(new String[] { "1", null }),
+                                                     new int[] { Types.INTEGER, Types.VARCHAR });
+        assertEquals("1\t\\N\n", read(rows));
+    }
+
+    @Test
+    void specialCharactersAreEscaped() throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(FakeResultSet.of(new String[] { "a\\b\tc\nd\re" }),
+                                                     new int[] { Types.VARCHAR });
+        assertEquals("a\\\\b\\tc\\nd\\re\n", read(rows));
+    }
+
+    @Test
+    void timestampsUseASpace() throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(FakeResultSet.of(new String[] { "2024-05-21 06:20:21" }),
+                                                     new int[] { Types.TIMESTAMP });
+        assertEquals("2024-05-21 06:20:21\n", read(rows));
+    }
+
+    @Test
+    void emptyResultIsEmpty() throws Exception
+    {
+        TabSeparatedRows rows = new TabSeparatedRows(FakeResultSet.of(), new int[] { Types.INTEGER });
+        assertEquals("", read(rows));
+        assertEquals(0, rows.rows());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TableTest
+{
+    @Test
+    void inListsArePaddedToPowersOfTwo()
+    {
+        assertEquals(1, Table.inListSize(1));
+        assertEquals(4, Table.inListSize(3));
+        assertEquals(512, Table.inListSize(512));
+        assertEquals(Table.MAX_IN_KEYS, Table.inListSize(513));
+        assertEquals(Table.MAX_IN_KEYS, Table.inListSize(Table.MAX_IN_KEYS));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ sqlcomp - Copyright (C) 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.ammunde.sqlcomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class WriteBatchTest
+{
+    static final int[] TYPES = { Types.INTEGER };
+
+    static WriteBatch rows(int n)
+    {
+        return rows(1, n);
+    }
+
+    static WriteBatch rows(int from, int to)
+    {
+        WriteBatch batch = new WriteBatch(null);
+        for (int pk = from; pk <= to; pk++)
+        {
+            batch.add("DELETE FROM t WHERE id=?", TYPES, new String[] { ""+pk }, pk);
+        }
+        return batch;
+    }
+
+    @Test
+    void singleRowCannotBeSplit()
+    {
+        assertNull(rows(1).split());
+    }
+
+    @Test
+    void splitKeepsAllRowsInOrder()
+    {
+        List<WriteBatch> halves = rows(5).split();
+        assertEquals(List.of(1, 2), halves.get(0).keys());
+        assertEquals(List.of(3, 4, 5), halves.get(1).keys());
+    }
+
+    @Test
+    void groupedStatementIsSplitIntoItsSingleRows()
+    {
+        List<WriteBatch.Single> singles = new ArrayList<>();
+        for (int pk = 1; pk <= 4; pk++)
+        {
+            singles.add(new WriteBatch.Single("UPDATE t SET v=? WHERE id=?", TYPES, new String[] { "x", ""+pk }, pk));
+        }
+        WriteBatch batch = new WriteBatch(null);
+        batch.add("UPDATE t SET v=CASE ... END WHERE id IN (?,?,?,?)", TYPES, new String[0], singles);
+
+        List<WriteBatch> halves = batch.split();
+        assertEquals(List.of(1, 2), halves.get(0).keys());
+        assertEquals(List.of(3, 4), halves.get(1).keys());
+    }
+}
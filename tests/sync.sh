@@ -0,0 +1,28 @@
+#!/bin/bash
+# sqlcomp - Copyright 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+. ./tests/prepare_dbs.sh "$1" "$2" "$3" "$4" "$5"
+
+# Sync the data, no row may end up in the dead letter file.
+rm -f $OUTPUT/dead_letter.txt
+echo "$SQLCOMP $VERBOSE --dead-letter=$OUTPUT/dead_letter.txt $CONFIG_XMQ sync-data"
+$SQLCOMP $VERBOSE --dead-letter=$OUTPUT/dead_letter.txt $CONFIG_XMQ sync-data > $OUTPUT/sync.log 2>&1
+
+if [ -s $OUTPUT/dead_letter.txt ]
+then
+    cat $OUTPUT/dead_letter.txt
+    echo "ERROR: $SOURCE_DB_TYPE->$SINK_DB_TYPE $1 rows could not be written"
+    exit 1
+fi
+
+# Now there should be no differences.
+$SQLCOMP $CONFIG_XMQ compare-data > $OUTPUT/after.sql 2>&1
+
+if grep -q "INSERT\|UPDATE\|DELETE" $OUTPUT/after.sql
+then
+    cat $OUTPUT/after.sql
+    echo "ERROR: $SOURCE_DB_TYPE->$SINK_DB_TYPE $1 expected no differences after sync"
+    exit 1
+fi
+
+echo "OK: $SOURCE_DB_TYPE->$SINK_DB_TYPE $1"
@@ -0,0 +1,39 @@
+# sqlcomp - Copyright 2025 Fredrik Öhrström (gpl-3.0-or-later)
+
+# Several rows that differ in the same timestamp and numeric columns are written
+# with a single grouped update, where the values are the THEN parameters of a CASE.
+
+TS_SOURCE=timestamp
+if [ "$SOURCE_DB_TYPE" = "sqlserver" ]; then TS_SOURCE=datetime2; fi
+TS_SINK=timestamp
+if [ "$SINK_DB_TYPE" = "sqlserver" ]; then TS_SINK=datetime2; fi
+
+echo "Creating DB test_from in $SOURCE_DB_TYPE"
+cat <<EOF2 | $SOURCE_DB_CMD >> $STDERR 2>&1
+drop database if exists test_from;
+create database test_from;
+EOF2
+
+echo "Creating gamma table in test_from"
+cat <<EOF2 | $SOURCE_DB_CMD $USE_SOURCE_DB >> $STDERR 2>&1
+create table gamma (lekey bigint not null, at $TS_SOURCE, amount numeric(10,2), note varchar(20), primary key (lekey));
+insert into gamma values (1, '2024-05-21 06:20:21', 10.50, 'one');
+insert into gamma values (2, '2024-05-22 07:21:22', 20.25, 'two');
+insert into gamma values (3, '2024-05-23 08:22:23', 30.75, 'three');
+insert into gamma values (4, '2024-05-24 09:23:24', 40.00, 'four');
+EOF2
+
+echo "Creating DB test_to in $SINK_DB_TYPE"
+cat <<EOF2 | $SINK_DB_CMD >> $STDERR 2>&1
+drop database if exists test_to;
+create database test_to;
+EOF2
+
+echo "Creating gamma table in test_to"
+cat <<EOF2 | $SINK_DB_CMD $USE_SINK_DB >> $STDERR 2>&1
+create table gamma (lekey bigint not null, at $TS_SINK, amount numeric(10,2), note varchar(20), primary key (lekey));
+insert into gamma values (1, '2000-01-01 00:00:00', 1.00, 'one');
+insert into gamma values (2, '2000-01-01 00:00:00', 2.00, 'two');
+insert into gamma values (3, '2000-01-01 00:00:00', 3.00, 'three');
+insert into gamma values (4, '2024-05-24 09:23:24', 40.00, 'four');
+EOF2
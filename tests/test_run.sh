@@ -16,3 +16,11 @@ do
     tests/compare.sh $i $SQLCOMP $OUTPUT $SOURCE_DB_TYPE $SINK_DB_TYPE
     if [ "$?" != 0 ]; then echo "Testing aborted"; exit 1 ; fi
 done
+
+for i in tests/sync_[0-9][0-9][0-9]_*.sh
+do
+    if [ -n $FILTER ] && [[ ! "$i" =~ $FILTER ]]; then continue; fi
+    OUTPUT=$OUTPUT_BASE/$(basename $i .sh)
+    tests/sync.sh $i $SQLCOMP $OUTPUT $SOURCE_DB_TYPE $SINK_DB_TYPE
+    if [ "$?" != 0 ]; then echo "Testing aborted"; exit 1 ; fi
+done